@@ -0,0 +1,154 @@
+package org.jenkinsci.plugins.lucene.search;
+
+import hudson.console.ConsoleNote;
+import hudson.model.Run;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Reads the console log of a build line by line, with console notes removed, without ever holding
+ * more than one line in memory. Logs larger than {@code maxBytes} are read partially: the head of
+ * the log up to {@code maxBytes - tailBytes}, then the last {@code tailBytes}. Line numbers keep
+ * counting the skipped part, so they always match the line in the full log.
+ */
+public class ConsoleLineReader implements Closeable {
+
+  /** Longer lines are cut off; the rest of the line is skipped. */
+  public static final int MAX_LINE_BYTES = 64 * 1024;
+
+  private static final int BUFFER_SIZE = 8192;
+
+  private final InputStream in;
+  private final Charset charset;
+  private final long headBytes;
+  private final long tailStart;
+  private final byte[] buffer = new byte[BUFFER_SIZE];
+  private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+  private int bufferPos;
+  private int bufferEnd;
+  private long position;
+  private int lineNumber;
+  private boolean tailReached;
+
+  public ConsoleLineReader(Run<?, ?> run, long maxBytes, long tailBytes) throws IOException {
+    this(run.getLogInputStream(), run.getCharset(), run.getLogText().length(), maxBytes, tailBytes);
+  }
+
+  /**
+   * @param length the length of the log, used to find where the tail starts
+   * @param maxBytes the most bytes to read from the log, or 0 to read all of it
+   * @param tailBytes how many of {@code maxBytes} are taken from the end of the log
+   */
+  ConsoleLineReader(
+      InputStream in, Charset charset, long length, long maxBytes, long tailBytes) {
+    this.in = in;
+    this.charset = charset;
+    if (maxBytes > 0 && length > maxBytes) {
+      long tail = Math.min(Math.max(tailBytes, 0), maxBytes);
+      headBytes = maxBytes - tail;
+      tailStart = length - tail;
+    } else {
+      headBytes = Long.MAX_VALUE;
+      tailStart = -1;
+    }
+  }
+
+  /** Returns the next line without its line terminator, or null at the end of the log. */
+  public String readLine() throws IOException {
+    if (!tailReached && tailStart >= 0 && position >= headBytes) {
+      skipTo(tailStart);
+      tailReached = true;
+    }
+    line.reset();
+    boolean read = false;
+    while (bufferPos < bufferEnd || fill()) {
+      read = true;
+      int end = indexOfNewline();
+      int lineEnd = end >= 0 ? end : bufferEnd;
+      int room = MAX_LINE_BYTES - line.size();
+      if (room > 0) {
+        line.write(buffer, bufferPos, Math.min(lineEnd - bufferPos, room));
+      }
+      int next = end >= 0 ? end + 1 : bufferEnd;
+      position += next - bufferPos;
+      bufferPos = next;
+      if (end >= 0) {
+        break;
+      }
+    }
+    if (!read) {
+      return null;
+    }
+    lineNumber++;
+    int size = line.size();
+    byte[] bytes = line.toByteArray();
+    if (size > 0 && bytes[size - 1] == '\r') {
+      size--;
+    }
+    return ConsoleNote.removeNotes(new String(bytes, 0, size, charset));
+  }
+
+  /** The 1-based number of the line last returned by {@link #readLine()}. */
+  public int getLineNumber() {
+    return lineNumber;
+  }
+
+  /** Skips the next {@code count} lines, only counting them, without decoding them. */
+  public void skipLines(int count) throws IOException {
+    for (int i = 0; i < count && skipLine(); i++) {
+      // Counted by skipLine
+    }
+  }
+
+  /** Skips up to {@code target}, then to the start of the next line, counting skipped lines. */
+  private void skipTo(long target) throws IOException {
+    while (position < target && skipLine()) {
+      // Counted by skipLine
+    }
+  }
+
+  /** Skips to the start of the next line; returns false if the log ended first. */
+  private boolean skipLine() throws IOException {
+    while (bufferPos < bufferEnd || fill()) {
+      int end = indexOfNewline();
+      if (end >= 0) {
+        lineNumber++;
+        position += end + 1 - bufferPos;
+        bufferPos = end + 1;
+        return true;
+      }
+      position += bufferEnd - bufferPos;
+      bufferPos = bufferEnd;
+    }
+    return false;
+  }
+
+  private int indexOfNewline() {
+    for (int i = bufferPos; i < bufferEnd; i++) {
+      if (buffer[i] == '\n') {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private boolean fill() throws IOException {
+    int read = in.read(buffer, 0, buffer.length);
+    if (read <= 0) {
+      bufferPos = 0;
+      bufferEnd = 0;
+      return false;
+    }
+    bufferPos = 0;
+    bufferEnd = read;
+    return true;
+  }
+
+  @Override
+  public void close() throws IOException {
+    in.close();
+  }
+}
@@ -0,0 +1,88 @@
+package org.jenkinsci.plugins.lucene.search;
+
+import hudson.model.Action;
+import hudson.model.Run;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Shows a few lines of a console log around a given line, so search results can link to the exact
+ * line that matched instead of the start of a possibly huge log.
+ */
+public class ConsoleLinesAction implements Action {
+
+  static final String URL_NAME = "console-lines";
+
+  /** Lines shown before and after the requested line. */
+  private static final int CONTEXT_LINES = 50;
+
+  private final Run<?, ?> run;
+
+  public ConsoleLinesAction(Run<?, ?> run) {
+    this.run = run;
+  }
+
+  /** The url of the console lines around {@code line} of the build at {@code buildUrl}. */
+  public static String getUrl(String buildUrl, int line) {
+    return buildUrl + URL_NAME + "/?line=" + line + "#L" + line;
+  }
+
+  public Run<?, ?> getRun() {
+    return run;
+  }
+
+  public List<Line> getLines(String line) throws IOException {
+    int target = 1;
+    try {
+      target = Math.max(1, Integer.parseInt(line));
+    } catch (NumberFormatException e) {
+      // show the start of the log
+    }
+    int from = Math.max(1, target - CONTEXT_LINES);
+    int to = target + CONTEXT_LINES;
+    List<Line> lines = new ArrayList<>();
+    try (ConsoleLineReader reader = new ConsoleLineReader(run, 0, 0)) {
+      // The lines before are only counted
+      reader.skipLines(from - 1);
+      String text;
+      while (reader.getLineNumber() < to && (text = reader.readLine()) != null) {
+        lines.add(new Line(reader.getLineNumber(), text));
+      }
+    }
+    return lines;
+  }
+
+  @Override
+  public String getIconFileName() {
+    return null;
+  }
+
+  @Override
+  public String getDisplayName() {
+    return "Console lines";
+  }
+
+  @Override
+  public String getUrlName() {
+    return URL_NAME;
+  }
+
+  public static class Line {
+    private final int number;
+    private final String text;
+
+    Line(int number, String text) {
+      this.number = number;
+      this.text = text;
+    }
+
+    public int getNumber() {
+      return number;
+    }
+
+    public String getText() {
+      return text;
+    }
+  }
+}
@@ -0,0 +1,24 @@
+package org.jenkinsci.plugins.lucene.search;
+
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.model.Run;
+import java.util.Collection;
+import java.util.Collections;
+import jenkins.model.TransientActionFactory;
+
+@Extension
+@SuppressWarnings("rawtypes")
+public class ConsoleLinesActionFactory extends TransientActionFactory<Run> {
+
+  @Override
+  public Class<Run> type() {
+    return Run.class;
+  }
+
+  @NonNull
+  @Override
+  public Collection<ConsoleLinesAction> createFor(@NonNull Run target) {
+    return Collections.singleton(new ConsoleLinesAction(target));
+  }
+}
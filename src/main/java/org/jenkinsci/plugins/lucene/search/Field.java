@@ -1,13 +1,10 @@
 package org.jenkinsci.plugins.lucene.search;
 
-import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import hudson.model.*;
-import java.io.IOException;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import org.apache.commons.io.output.ByteArrayOutputStream;
 
 public enum Field {
   PROJECT_NAME("j", Persist.TRUE) {
@@ -48,20 +45,10 @@ public enum Field {
   },
 
   CONSOLE("c", Persist.TRUE) {
-    @SuppressFBWarnings(
-        value = "RV_RETURN_VALUE_IGNORED",
-        justification =
-            "The offset returned by writeLogTo() can be ignored, "
-                + "since no furtehr text is written to the output stream.")
     @Override
     public String getValue(Run<?, ?> build) {
-      try {
-        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-        build.getLogText().writeLogTo(0, byteArrayOutputStream);
-        return byteArrayOutputStream.toString();
-      } catch (IOException e) {
-        return null;
-      }
+      // Never read as a whole: the backend indexes the console in chunks, line by line
+      return null;
     }
   };
 
@@ -0,0 +1,23 @@
+package org.jenkinsci.plugins.lucene.search;
+
+import hudson.Extension;
+import hudson.console.ConsoleLogFilter;
+import hudson.model.Run;
+import java.io.OutputStream;
+import javax.inject.Inject;
+import org.jenkinsci.plugins.lucene.search.databackend.SearchBackendManager;
+
+@Extension
+public class FreeTextConsoleLogFilter extends ConsoleLogFilter {
+
+  @Inject SearchBackendManager searchBackendManager;
+
+  @Override
+  @SuppressWarnings("rawtypes")
+  public OutputStream decorateLogger(Run build, OutputStream logger) {
+    if (build == null) {
+      return logger;
+    }
+    return searchBackendManager.tapConsole(build, logger);
+  }
+}
@@ -2,6 +2,7 @@ package org.jenkinsci.plugins.lucene.search;
 
 import hudson.Extension;
 import hudson.model.Item;
+import hudson.model.Job;
 import hudson.model.listeners.ItemListener;
 import java.io.IOException;
 import javax.inject.Inject;
@@ -15,8 +16,27 @@ public class FreeTextItemListener extends ItemListener {
 
   @Inject SearchBackendManager searchBackendManager;
 
+  @Override
+  public void onCreated(Item item) {
+    searchBackendManager.invalidateVisibleJobs();
+  }
+
+  @Override
+  public void onLocationChanged(Item item, String oldFullName, String newFullName) {
+    searchBackendManager.invalidateVisibleJobs();
+    // Called for every job inside a moved folder as well
+    if (item instanceof Job) {
+      try {
+        searchBackendManager.renameJob(oldFullName, (Job<?, ?>) item);
+      } catch (IOException e) {
+        logger.error("When moving the job index: ", e);
+      }
+    }
+  }
+
   @Override
   public void onDeleted(Item item) {
+    searchBackendManager.invalidateVisibleJobs();
     try {
       searchBackendManager.deleteJob(item.getFullName());
     } catch (IOException e) {
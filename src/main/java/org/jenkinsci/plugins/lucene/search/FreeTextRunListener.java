@@ -1,9 +1,7 @@
 package org.jenkinsci.plugins.lucene.search;
 
-import edu.umd.cs.findbugs.annotations.NonNull;
 import hudson.Extension;
 import hudson.model.Run;
-import hudson.model.TaskListener;
 import hudson.model.listeners.RunListener;
 import java.io.IOException;
 import javax.inject.Inject;
@@ -17,13 +15,13 @@ public class FreeTextRunListener extends RunListener<Run<?, ?>> {
 
   @Inject SearchBackendManager searchBackendManager;
 
+  /**
+   * Indexes the build once its log has been closed, so the lines written after it completed, such
+   * as the result, are indexed along and the indexed log length stays the same on later saves.
+   */
   @Override
-  public void onCompleted(final Run<?, ?> build, @NonNull final TaskListener listener) {
-    try {
-      searchBackendManager.storeBuild(build);
-    } catch (IOException e) {
-      logger.error("When saving the finished build index: ", e);
-    }
+  public void onFinalized(final Run<?, ?> build) {
+    searchBackendManager.queueBuild(build);
   }
 
   @Override
@@ -6,6 +6,7 @@ import java.util.*;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.servlet.ServletException;
+import org.jenkinsci.plugins.lucene.search.databackend.HitPage;
 import org.jenkinsci.plugins.lucene.search.databackend.SearchBackendManager;
 import org.kohsuke.stapler.Ancestor;
 import org.kohsuke.stapler.QueryParameter;
@@ -18,23 +19,16 @@ public class FreeTextSearch extends Search {
 
   private final SearchBackendManager manager;
 
-  private final Map<Integer, List<FreeTextSearchItem>> pageMap;
-
-  private int curr_page;
+  private String query;
 
-  private int max_page;
+  // Whether the hits list the newest builds first rather than the best matches first
+  private boolean newestFirst;
 
-  private String query;
+  // The model objects found by the query, listed before the hits of the first page
+  private List<FreeTextSearchItem> modelHits = Collections.emptyList();
 
   public FreeTextSearch(final SearchBackendManager manager) {
     this.manager = manager;
-    curr_page = 0;
-    max_page = Integer.MAX_VALUE;
-    pageMap = new HashMap<>();
-  }
-
-  public int getPageNum() {
-    return curr_page;
   }
 
   private List<FreeTextSearchItem> normalSearch(StaplerRequest req, String query) {
@@ -61,44 +55,39 @@ public class FreeTextSearch extends Search {
     return searchResults;
   }
 
-  public List<FreeTextSearchItem> getPage() {
-    List<FreeTextSearchItem> page = pageMap.get(curr_page);
-    if (page == null) {
-      page = new ArrayList<>(manager.getHits(query, true));
-      if (page.isEmpty()) {
-        max_page = curr_page;
-      }
-      pageMap.put(curr_page, page);
-    }
-    return page;
-  }
-
-  public boolean isEmptyResult() {
-    return getPage().isEmpty();
-  }
-
-  @JavaScriptMethod
-  public boolean isFirstPage() {
-    return curr_page <= 1;
-  }
-
+  /**
+   * Returns the first page of hits if {@code cursor} is null, otherwise the page after the one
+   * that returned the cursor. The client keeps the cursors of the pages it has seen to page back.
+   */
   @JavaScriptMethod
-  public boolean isLastPage() {
-    return curr_page >= max_page;
+  public ResultPage page(String cursor) {
+    if (query == null) {
+      return new ResultPage(Collections.emptyList(), null);
+    }
+    HitPage page = manager.getHits(query, cursor, newestFirst);
+    List<FreeTextSearchItem> hits = new ArrayList<>();
+    if (cursor == null) {
+      hits.addAll(modelHits);
+    }
+    hits.addAll(page.getHits());
+    return new ResultPage(hits, page.getNextCursor());
   }
 
   @Override
   public void doIndex(StaplerRequest req, StaplerResponse rsp)
       throws IOException, ServletException {
     query = req.getParameter("q");
+    newestFirst = "newest".equals(req.getParameter("sort"));
     if (query != null) {
-      List<FreeTextSearchItem> hits = normalSearch(req, query);
-      hits.addAll(manager.getHits(query, false));
-      pageMap.put(1, hits);
+      modelHits = normalSearch(req, query);
     }
     req.getView(this, "search-results.jelly").forward(req, rsp);
   }
 
+  public boolean isNewestFirst() {
+    return newestFirst;
+  }
+
   @Override
   public SearchResult getSuggestions(final StaplerRequest req, @QueryParameter final String query) {
     SearchResult suggestedItems = super.getSuggestions(req, query);
@@ -106,15 +95,23 @@ public class FreeTextSearch extends Search {
     return suggestedItems;
   }
 
-  @JavaScriptMethod
-  public List<FreeTextSearchItem> prev() {
-    curr_page = Math.max(curr_page - 1, 1);
-    return getPage();
-  }
+  /** A page of hits as sent to the client. */
+  public static class ResultPage {
+    private final List<FreeTextSearchItem> hits;
+    private final String nextCursor;
 
-  @JavaScriptMethod
-  public List<FreeTextSearchItem> next() {
-    curr_page = Math.min(curr_page + 1, max_page);
-    return getPage();
+    ResultPage(List<FreeTextSearchItem> hits, String nextCursor) {
+      this.hits = hits;
+      this.nextCursor = nextCursor;
+    }
+
+    public List<FreeTextSearchItem> getHits() {
+      return hits;
+    }
+
+    /** The cursor of the next page, or null if this is the last page. */
+    public String getNextCursor() {
+      return nextCursor;
+    }
   }
 }
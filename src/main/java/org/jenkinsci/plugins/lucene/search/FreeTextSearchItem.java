@@ -6,10 +6,13 @@ import jenkins.model.Jenkins;
 public abstract class FreeTextSearchItem implements SearchItem {
 
   public String getUrl() {
+    return toAbsoluteUrl(getSearchUrl());
+  }
+
+  protected static String toAbsoluteUrl(String searchUrl) {
     String root = Jenkins.getInstance().getRootUrl();
-    String searchUrl = getSearchUrl();
     boolean rootHasSlash = root.endsWith("/");
-    boolean urlHasSlash = getSearchUrl().startsWith("/");
+    boolean urlHasSlash = searchUrl.startsWith("/");
     if (rootHasSlash && urlHasSlash) {
       return root + searchUrl.substring(1);
     } else if (!rootHasSlash && !urlHasSlash) {
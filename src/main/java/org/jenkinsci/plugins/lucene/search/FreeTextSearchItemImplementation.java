@@ -16,6 +16,9 @@ public class FreeTextSearchItemImplementation extends FreeTextSearchItem {
   private final List<String> bestFragments;
   private final String url;
   private final String searchName;
+  private final int consoleLine;
+  private final String consoleUrl;
+  private final String jobUrl;
 
   public FreeTextSearchItemImplementation(
       final String searchName,
@@ -23,7 +26,39 @@ public class FreeTextSearchItemImplementation extends FreeTextSearchItem {
       final String[] bestFragments,
       final String url,
       boolean isShowConsole) {
+    this(searchName, projectName, bestFragments, url, isShowConsole, 0, null, null);
+  }
+
+  /**
+   * @param consoleLine the console line that matched, or 0 if the console did not match
+   * @param consoleUrl the url of that line in the console, relative to the Jenkins root
+   */
+  public FreeTextSearchItemImplementation(
+      final String searchName,
+      final String projectName,
+      final String[] bestFragments,
+      final String url,
+      boolean isShowConsole,
+      int consoleLine,
+      final String consoleUrl) {
+    this(
+        searchName, projectName, bestFragments, url, isShowConsole, consoleLine, consoleUrl, null);
+  }
+
+  /** @param jobUrl the url of the job of the build, relative to the Jenkins root */
+  public FreeTextSearchItemImplementation(
+      final String searchName,
+      final String projectName,
+      final String[] bestFragments,
+      final String url,
+      boolean isShowConsole,
+      int consoleLine,
+      final String consoleUrl,
+      final String jobUrl) {
     this.searchName = searchName;
+    this.consoleLine = consoleLine;
+    this.consoleUrl = consoleUrl;
+    this.jobUrl = jobUrl;
     this.projectName = projectName;
     this.url = url;
     this.isShowConsole = isShowConsole;
@@ -43,6 +78,18 @@ public class FreeTextSearchItemImplementation extends FreeTextSearchItem {
     return searchName;
   }
 
+  public int getConsoleLine() {
+    return consoleLine;
+  }
+
+  public String getConsoleUrl() {
+    return consoleUrl == null ? null : toAbsoluteUrl(consoleUrl);
+  }
+
+  public String getJobUrl() {
+    return jobUrl == null ? null : toAbsoluteUrl(jobUrl);
+  }
+
   public String getProjectName() {
     return projectName;
   }
@@ -11,6 +11,7 @@ import javax.inject.Inject;
 import jenkins.model.GlobalConfiguration;
 import jenkins.model.Jenkins;
 import net.sf.json.JSONObject;
+import org.jenkinsci.plugins.lucene.search.databackend.Durability;
 import org.jenkinsci.plugins.lucene.search.databackend.SearchBackendManager;
 import org.kohsuke.stapler.DataBoundConstructor;
 import org.kohsuke.stapler.QueryParameter;
@@ -21,12 +22,40 @@ public class SearchBackendConfiguration extends GlobalConfiguration {
 
   private static final String LUCENE_PATH = "lucenePath";
   private static final String USE_SECURITY = "useSecurity";
+  private static final String SEARCHER_REFRESH_INTERVAL = "searcherRefreshInterval";
+  private static final String DURABILITY = "durability";
+  private static final String COMMIT_INTERVAL = "commitInterval";
+  private static final String MAX_UNCOMMITTED_CHANGES = "maxUncommittedChanges";
+  private static final String INDEXING_WORKERS = "indexingWorkers";
+  private static final String INDEXING_QUEUE_SIZE = "indexingQueueSize";
+  private static final String CONSOLE_MAX_BYTES = "consoleMaxBytes";
+  private static final String CONSOLE_TAIL_BYTES = "consoleTailBytes";
+  private static final String LIVE_CONSOLE_INDEXING = "liveConsoleIndexing";
+  private static final String HIGHLIGHT_BUDGET = "highlightBudget";
+  private static final String SUGGESTION_BUDGET = "suggestionBudget";
+  private static final String SAVE_COALESCING_WINDOW = "saveCoalescingWindow";
 
   @Inject private transient SearchBackendManager backendManager;
 
   private File lucenePath = new File(Jenkins.getInstance().getRootDir(), "luceneIndex");
   private boolean useSecurity = true;
   private boolean luceneSearchEnabled = true;
+  private long searcherRefreshInterval = 1000;
+  private Durability durability = Durability.GROUPED;
+  private long commitInterval = 1000;
+  private int maxUncommittedChanges = 100;
+  private int indexingWorkers = 2;
+  private int indexingQueueSize = 1000;
+  private long consoleMaxBytes = 32 * 1024 * 1024;
+  private long consoleTailBytes = 8 * 1024 * 1024;
+  private boolean liveConsoleIndexing = true;
+  private long highlightBudget = 500;
+  private long suggestionBudget = 100;
+  private long saveCoalescingWindow = 5000;
+  // Set from the Lucene Search Manager page rather than the global configuration
+  private long rebuildBytesPerSecond = 0;
+  private long rebuildBuildsPerSecond = 0;
+  private boolean adaptiveRebuildThrottle = true;
 
   @DataBoundConstructor
   public SearchBackendConfiguration(
@@ -46,6 +75,10 @@ public class SearchBackendConfiguration extends GlobalConfiguration {
     load();
   }
 
+  public static SearchBackendConfiguration get() {
+    return GlobalConfiguration.all().get(SearchBackendConfiguration.class);
+  }
+
   public void setLucenePath(final File lucenePath) {
     Jenkins.get().getACL().checkPermission(Jenkins.ADMINISTER);
     this.lucenePath = lucenePath;
@@ -61,6 +94,71 @@ public class SearchBackendConfiguration extends GlobalConfiguration {
     }
   }
 
+  public FormValidation doCheckSearcherRefreshInterval(
+      @QueryParameter final String searcherRefreshInterval) {
+    Jenkins.get().getACL().checkPermission(Jenkins.ADMINISTER);
+    return checkAtLeast(searcherRefreshInterval, 1);
+  }
+
+  public FormValidation doCheckCommitInterval(@QueryParameter final String commitInterval) {
+    Jenkins.get().getACL().checkPermission(Jenkins.ADMINISTER);
+    return checkAtLeast(commitInterval, 1);
+  }
+
+  public FormValidation doCheckMaxUncommittedChanges(
+      @QueryParameter final String maxUncommittedChanges) {
+    Jenkins.get().getACL().checkPermission(Jenkins.ADMINISTER);
+    return checkAtLeast(maxUncommittedChanges, 1);
+  }
+
+  public FormValidation doCheckIndexingWorkers(@QueryParameter final String indexingWorkers) {
+    Jenkins.get().getACL().checkPermission(Jenkins.ADMINISTER);
+    return checkAtLeast(indexingWorkers, 1);
+  }
+
+  public FormValidation doCheckIndexingQueueSize(@QueryParameter final String indexingQueueSize) {
+    Jenkins.get().getACL().checkPermission(Jenkins.ADMINISTER);
+    return checkAtLeast(indexingQueueSize, 1);
+  }
+
+  public FormValidation doCheckConsoleMaxBytes(@QueryParameter final String consoleMaxBytes) {
+    Jenkins.get().getACL().checkPermission(Jenkins.ADMINISTER);
+    return checkAtLeast(consoleMaxBytes, 0);
+  }
+
+  public FormValidation doCheckConsoleTailBytes(@QueryParameter final String consoleTailBytes) {
+    Jenkins.get().getACL().checkPermission(Jenkins.ADMINISTER);
+    return checkAtLeast(consoleTailBytes, 0);
+  }
+
+  public FormValidation doCheckHighlightBudget(@QueryParameter final String highlightBudget) {
+    Jenkins.get().getACL().checkPermission(Jenkins.ADMINISTER);
+    return checkAtLeast(highlightBudget, 0);
+  }
+
+  public FormValidation doCheckSuggestionBudget(@QueryParameter final String suggestionBudget) {
+    Jenkins.get().getACL().checkPermission(Jenkins.ADMINISTER);
+    return checkAtLeast(suggestionBudget, 1);
+  }
+
+  public FormValidation doCheckSaveCoalescingWindow(
+      @QueryParameter final String saveCoalescingWindow) {
+    Jenkins.get().getACL().checkPermission(Jenkins.ADMINISTER);
+    return checkAtLeast(saveCoalescingWindow, 0);
+  }
+
+  /** Accepts the whole numbers of at least {@code min}. */
+  private static FormValidation checkAtLeast(String value, long min) {
+    try {
+      if (value != null && Long.parseLong(value.trim()) >= min) {
+        return FormValidation.ok();
+      }
+    } catch (NumberFormatException e) {
+      // Not a whole number
+    }
+    return FormValidation.error("Must be a whole number of at least " + min);
+  }
+
   @Override
   public boolean configure(final StaplerRequest req, final JSONObject json) throws FormException {
     JSONObject selectedJson = json.getJSONObject("searchBackend");
@@ -72,6 +170,60 @@ public class SearchBackendConfiguration extends GlobalConfiguration {
     if (json.containsKey(USE_SECURITY)) {
       setUseSecurity(json.getBoolean(USE_SECURITY));
     }
+    if (json.containsKey(SEARCHER_REFRESH_INTERVAL)) {
+      ensureNotError(
+          doCheckSearcherRefreshInterval(json.getString(SEARCHER_REFRESH_INTERVAL)),
+          SEARCHER_REFRESH_INTERVAL);
+      setSearcherRefreshInterval(json.getLong(SEARCHER_REFRESH_INTERVAL));
+    }
+    if (json.containsKey(DURABILITY)) {
+      setDurability(Durability.valueOf(json.getString(DURABILITY)));
+    }
+    if (json.containsKey(COMMIT_INTERVAL)) {
+      ensureNotError(doCheckCommitInterval(json.getString(COMMIT_INTERVAL)), COMMIT_INTERVAL);
+      setCommitInterval(json.getLong(COMMIT_INTERVAL));
+    }
+    if (json.containsKey(MAX_UNCOMMITTED_CHANGES)) {
+      ensureNotError(
+          doCheckMaxUncommittedChanges(json.getString(MAX_UNCOMMITTED_CHANGES)),
+          MAX_UNCOMMITTED_CHANGES);
+      setMaxUncommittedChanges(json.getInt(MAX_UNCOMMITTED_CHANGES));
+    }
+    if (json.containsKey(INDEXING_WORKERS)) {
+      ensureNotError(doCheckIndexingWorkers(json.getString(INDEXING_WORKERS)), INDEXING_WORKERS);
+      setIndexingWorkers(json.getInt(INDEXING_WORKERS));
+    }
+    if (json.containsKey(INDEXING_QUEUE_SIZE)) {
+      ensureNotError(
+          doCheckIndexingQueueSize(json.getString(INDEXING_QUEUE_SIZE)), INDEXING_QUEUE_SIZE);
+      setIndexingQueueSize(json.getInt(INDEXING_QUEUE_SIZE));
+    }
+    if (json.containsKey(CONSOLE_MAX_BYTES)) {
+      ensureNotError(doCheckConsoleMaxBytes(json.getString(CONSOLE_MAX_BYTES)), CONSOLE_MAX_BYTES);
+      setConsoleMaxBytes(json.getLong(CONSOLE_MAX_BYTES));
+    }
+    if (json.containsKey(CONSOLE_TAIL_BYTES)) {
+      ensureNotError(
+          doCheckConsoleTailBytes(json.getString(CONSOLE_TAIL_BYTES)), CONSOLE_TAIL_BYTES);
+      setConsoleTailBytes(json.getLong(CONSOLE_TAIL_BYTES));
+    }
+    if (json.containsKey(LIVE_CONSOLE_INDEXING)) {
+      setLiveConsoleIndexing(json.getBoolean(LIVE_CONSOLE_INDEXING));
+    }
+    if (json.containsKey(HIGHLIGHT_BUDGET)) {
+      ensureNotError(doCheckHighlightBudget(json.getString(HIGHLIGHT_BUDGET)), HIGHLIGHT_BUDGET);
+      setHighlightBudget(json.getLong(HIGHLIGHT_BUDGET));
+    }
+    if (json.containsKey(SUGGESTION_BUDGET)) {
+      ensureNotError(doCheckSuggestionBudget(json.getString(SUGGESTION_BUDGET)), SUGGESTION_BUDGET);
+      setSuggestionBudget(json.getLong(SUGGESTION_BUDGET));
+    }
+    if (json.containsKey(SAVE_COALESCING_WINDOW)) {
+      ensureNotError(
+          doCheckSaveCoalescingWindow(json.getString(SAVE_COALESCING_WINDOW)),
+          SAVE_COALESCING_WINDOW);
+      setSaveCoalescingWindow(json.getLong(SAVE_COALESCING_WINDOW));
+    }
     try {
       reconfigure();
     } catch (IOException e) {
@@ -96,6 +248,14 @@ public class SearchBackendConfiguration extends GlobalConfiguration {
   public Map<String, Object> getConfig() {
     Map<String, Object> config = new HashMap<String, Object>();
     config.put("lucenePath", lucenePath);
+    config.put(SEARCHER_REFRESH_INTERVAL, searcherRefreshInterval);
+    config.put(DURABILITY, getDurability());
+    config.put(COMMIT_INTERVAL, commitInterval);
+    config.put(MAX_UNCOMMITTED_CHANGES, maxUncommittedChanges);
+    config.put(CONSOLE_MAX_BYTES, consoleMaxBytes);
+    config.put(CONSOLE_TAIL_BYTES, consoleTailBytes);
+    config.put(HIGHLIGHT_BUDGET, highlightBudget);
+    config.put(SUGGESTION_BUDGET, suggestionBudget);
     return config;
   }
 
@@ -115,4 +275,145 @@ public class SearchBackendConfiguration extends GlobalConfiguration {
   public void setLuceneSearchEnabled(boolean luceneSearchEnabled) {
     this.luceneSearchEnabled = luceneSearchEnabled;
   }
+
+  public long getSearcherRefreshInterval() {
+    return searcherRefreshInterval;
+  }
+
+  public void setSearcherRefreshInterval(long searcherRefreshInterval) {
+    Jenkins.get().getACL().checkPermission(Jenkins.ADMINISTER);
+    this.searcherRefreshInterval = searcherRefreshInterval;
+  }
+
+  public Durability getDurability() {
+    return durability != null ? durability : Durability.GROUPED;
+  }
+
+  public void setDurability(Durability durability) {
+    Jenkins.get().getACL().checkPermission(Jenkins.ADMINISTER);
+    this.durability = durability;
+  }
+
+  public long getCommitInterval() {
+    return commitInterval;
+  }
+
+  public void setCommitInterval(long commitInterval) {
+    Jenkins.get().getACL().checkPermission(Jenkins.ADMINISTER);
+    this.commitInterval = commitInterval;
+  }
+
+  public int getMaxUncommittedChanges() {
+    return maxUncommittedChanges;
+  }
+
+  public void setMaxUncommittedChanges(int maxUncommittedChanges) {
+    Jenkins.get().getACL().checkPermission(Jenkins.ADMINISTER);
+    this.maxUncommittedChanges = maxUncommittedChanges;
+  }
+
+  public int getIndexingWorkers() {
+    return Math.max(indexingWorkers, 1);
+  }
+
+  public void setIndexingWorkers(int indexingWorkers) {
+    Jenkins.get().getACL().checkPermission(Jenkins.ADMINISTER);
+    this.indexingWorkers = indexingWorkers;
+  }
+
+  public int getIndexingQueueSize() {
+    return Math.max(indexingQueueSize, 1);
+  }
+
+  public void setIndexingQueueSize(int indexingQueueSize) {
+    Jenkins.get().getACL().checkPermission(Jenkins.ADMINISTER);
+    this.indexingQueueSize = indexingQueueSize;
+  }
+
+  public long getConsoleMaxBytes() {
+    return consoleMaxBytes;
+  }
+
+  public void setConsoleMaxBytes(long consoleMaxBytes) {
+    Jenkins.get().getACL().checkPermission(Jenkins.ADMINISTER);
+    this.consoleMaxBytes = consoleMaxBytes;
+  }
+
+  public long getConsoleTailBytes() {
+    return consoleTailBytes;
+  }
+
+  public void setConsoleTailBytes(long consoleTailBytes) {
+    Jenkins.get().getACL().checkPermission(Jenkins.ADMINISTER);
+    this.consoleTailBytes = consoleTailBytes;
+  }
+
+  public boolean isLiveConsoleIndexing() {
+    return liveConsoleIndexing;
+  }
+
+  public void setLiveConsoleIndexing(boolean liveConsoleIndexing) {
+    Jenkins.get().getACL().checkPermission(Jenkins.ADMINISTER);
+    this.liveConsoleIndexing = liveConsoleIndexing;
+  }
+
+  public long getHighlightBudget() {
+    return highlightBudget;
+  }
+
+  public void setHighlightBudget(long highlightBudget) {
+    Jenkins.get().getACL().checkPermission(Jenkins.ADMINISTER);
+    this.highlightBudget = highlightBudget;
+  }
+
+  public long getSuggestionBudget() {
+    return suggestionBudget;
+  }
+
+  public void setSuggestionBudget(long suggestionBudget) {
+    Jenkins.get().getACL().checkPermission(Jenkins.ADMINISTER);
+    this.suggestionBudget = suggestionBudget;
+  }
+
+  public long getSaveCoalescingWindow() {
+    return saveCoalescingWindow;
+  }
+
+  public void setSaveCoalescingWindow(long saveCoalescingWindow) {
+    Jenkins.get().getACL().checkPermission(Jenkins.ADMINISTER);
+    this.saveCoalescingWindow = saveCoalescingWindow;
+  }
+
+  public long getRebuildBytesPerSecond() {
+    return rebuildBytesPerSecond;
+  }
+
+  public void setRebuildBytesPerSecond(long rebuildBytesPerSecond) {
+    Jenkins.get().getACL().checkPermission(Jenkins.ADMINISTER);
+    if (rebuildBytesPerSecond < 0) {
+      throw new IllegalArgumentException("Negative rebuild budget: " + rebuildBytesPerSecond);
+    }
+    this.rebuildBytesPerSecond = rebuildBytesPerSecond;
+  }
+
+  public long getRebuildBuildsPerSecond() {
+    return rebuildBuildsPerSecond;
+  }
+
+  public void setRebuildBuildsPerSecond(long rebuildBuildsPerSecond) {
+    Jenkins.get().getACL().checkPermission(Jenkins.ADMINISTER);
+    if (rebuildBuildsPerSecond < 0) {
+      throw new IllegalArgumentException("Negative rebuild budget: " + rebuildBuildsPerSecond);
+    }
+    this.rebuildBuildsPerSecond = rebuildBuildsPerSecond;
+  }
+
+  public boolean isAdaptiveRebuildThrottle() {
+    return adaptiveRebuildThrottle;
+  }
+
+  public void setAdaptiveRebuildThrottle(boolean adaptiveRebuildThrottle) {
+    Jenkins.get().getACL().checkPermission(Jenkins.ADMINISTER);
+    this.adaptiveRebuildThrottle = adaptiveRebuildThrottle;
+  }
 }
@@ -0,0 +1,191 @@
+package org.jenkinsci.plugins.lucene.search.databackend;
+
+import hudson.model.Run;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.AnalyzerWrapper;
+import org.apache.lucene.analysis.ngram.EdgeNGramTokenFilter;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig.OpenMode;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.suggest.InputIterator;
+import org.apache.lucene.search.suggest.Lookup;
+import org.apache.lucene.search.suggest.analyzing.AnalyzingInfixSuggester;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * Suggests builds by the words of their full display names, such as the job name and the build
+ * number, while the user types in the search box. The suggestions come from a small index of their
+ * own next to the search index, which is added to as builds are indexed, so a suggestion never
+ * needs a search of the consoles. Builds are removed from it with their job or as they are removed
+ * from the search index; callers still check that a suggested build is indexed, since builds added
+ * before they could be removed are kept.
+ */
+class BuildSuggester implements Closeable {
+  private final Directory directory;
+  private final Analyzer analyzer = new StandardAnalyzer();
+  private final DeletingSuggester suggester;
+  // Set whenever builds were added or removed since the last commit
+  private final AtomicBoolean changed = new AtomicBoolean();
+
+  BuildSuggester(File path) throws IOException {
+    directory = FSDirectory.open(path.toPath());
+    suggester = new DeletingSuggester(directory, analyzer);
+    if (!DirectoryReader.indexExists(directory)) {
+      // Lookups need an index, even an empty one
+      clear();
+    }
+  }
+
+  /** Adds the build, or replaces it if it was added before, even under another name. */
+  void addBuild(Run<?, ?> run) throws IOException {
+    String payload =
+        run.getUrl() + '\n' + run.getParent().getFullName() + '\n' + run.getExternalizableId();
+    suggester.delete(buildContext(run.getExternalizableId()));
+    // Newer builds are suggested first
+    suggester.add(
+        new BytesRef(run.getFullDisplayName()),
+        Set.of(jobContext(run.getParent().getFullName()), buildContext(run.getExternalizableId())),
+        run.getStartTimeInMillis(),
+        new BytesRef(payload.getBytes(StandardCharsets.UTF_8)));
+    changed.set(true);
+  }
+
+  /** Removes the build with the given externalizable id. */
+  void removeBuild(String buildId) throws IOException {
+    suggester.delete(buildContext(buildId));
+    changed.set(true);
+  }
+
+  /** Removes all builds of the job. */
+  void removeJob(String jobName) throws IOException {
+    suggester.delete(jobContext(jobName));
+    changed.set(true);
+  }
+
+  private static BytesRef jobContext(String jobName) {
+    return new BytesRef("job:" + jobName);
+  }
+
+  private static BytesRef buildContext(String buildId) {
+    return new BytesRef("build:" + buildId);
+  }
+
+  /** Returns up to {@code count} builds with all words of the query in their name, newest first. */
+  List<Suggestion> lookup(String query, int count) throws IOException {
+    List<Suggestion> suggestions = new ArrayList<>();
+    for (Lookup.LookupResult result : suggester.lookup(query, count, true, false)) {
+      String[] payload = result.payload.utf8ToString().split("\n", 3);
+      suggestions.add(new Suggestion(result.key.toString(), payload[0], payload[1], payload[2]));
+    }
+    return suggestions;
+  }
+
+  /** Makes the added builds visible to lookups. */
+  void refresh() throws IOException {
+    suggester.refresh();
+  }
+
+  void commit() throws IOException {
+    if (changed.getAndSet(false)) {
+      suggester.commit();
+    }
+  }
+
+  /** Removes all builds. */
+  void clear() throws IOException {
+    suggester.build(InputIterator.EMPTY);
+    changed.set(true);
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      suggester.close();
+    } finally {
+      analyzer.close();
+      directory.close();
+    }
+  }
+
+  /** Lets the builds be removed by the contexts they were added with. */
+  private static final class DeletingSuggester extends AnalyzingInfixSuggester {
+    private final Directory directory;
+
+    DeletingSuggester(Directory directory, Analyzer analyzer) throws IOException {
+      super(directory, analyzer);
+      this.directory = directory;
+    }
+
+    synchronized void delete(BytesRef context) throws IOException {
+      openWriter();
+      writer.deleteDocuments(new Term(CONTEXTS_FIELD_NAME, context));
+    }
+
+    /**
+     * Opens the writer the way the suggester opens it to add, which is the only time it does.
+     * Lookups then see the deletions once refreshed, as they see additions.
+     */
+    private void openWriter() throws IOException {
+      synchronized (searcherMgrLock) {
+        if (writer == null) {
+          writer =
+              new IndexWriter(directory, getIndexWriterConfig(gramAnalyzer(), OpenMode.APPEND));
+          SearcherManager oldSearcherMgr = searcherMgr;
+          searcherMgr = new SearcherManager(writer, null);
+          if (oldSearcherMgr != null) {
+            oldSearcherMgr.close();
+          }
+        }
+      }
+    }
+
+    /** Indexes the prefixes of the words as the suggester does, so added builds match alike. */
+    private Analyzer gramAnalyzer() {
+      return new AnalyzerWrapper(Analyzer.PER_FIELD_REUSE_STRATEGY) {
+        @Override
+        protected Analyzer getWrappedAnalyzer(String fieldName) {
+          return indexAnalyzer;
+        }
+
+        @Override
+        protected TokenStreamComponents wrapComponents(
+            String fieldName, TokenStreamComponents components) {
+          if (!fieldName.equals(TEXTGRAMS_FIELD_NAME)) {
+            return components;
+          }
+          return new TokenStreamComponents(
+              components.getSource(),
+              new EdgeNGramTokenFilter(
+                  components.getTokenStream(), 1, DEFAULT_MIN_PREFIX_CHARS, false));
+        }
+      };
+    }
+  }
+
+  static final class Suggestion {
+    final String name;
+    final String url;
+    final String jobName;
+    final String buildId;
+
+    Suggestion(String name, String url, String jobName, String buildId) {
+      this.name = name;
+      this.url = url;
+      this.jobName = jobName;
+      this.buildId = buildId;
+    }
+  }
+}
@@ -0,0 +1,79 @@
+package org.jenkinsci.plugins.lucene.search.databackend;
+
+import java.io.IOException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import jenkins.util.Timer;
+import org.apache.log4j.Logger;
+import org.apache.lucene.store.AlreadyClosedException;
+
+/**
+ * Decides when pending index changes are committed. Depending on the {@link Durability} every
+ * change is committed right away, or changes are grouped into one commit per interval (or per
+ * batch of changes, whichever comes first).
+ */
+class CommitScheduler {
+  private static final Logger LOGGER = Logger.getLogger(CommitScheduler.class);
+
+  interface Committer {
+    void commit() throws IOException;
+  }
+
+  private final Committer committer;
+  private final Durability durability;
+  private final long commitInterval;
+  private final int maxPendingChanges;
+
+  private int pendingChanges;
+  private ScheduledFuture<?> scheduledCommit;
+
+  CommitScheduler(
+      Committer committer, Durability durability, long commitInterval, int maxPendingChanges) {
+    this.committer = committer;
+    this.durability = durability;
+    this.commitInterval = commitInterval;
+    this.maxPendingChanges = maxPendingChanges;
+  }
+
+  /** Records that a change has been written to the index and commits it if the policy says so. */
+  void changed() throws IOException {
+    boolean commitNow;
+    synchronized (this) {
+      pendingChanges++;
+      commitNow = durability == Durability.EVERY_CHANGE || pendingChanges >= maxPendingChanges;
+      if (!commitNow && scheduledCommit == null) {
+        scheduledCommit =
+            Timer.get().schedule(this::scheduledFlush, commitInterval, TimeUnit.MILLISECONDS);
+      }
+    }
+    if (commitNow) {
+      flush();
+    }
+  }
+
+  /** Commits all pending changes right away. */
+  void flush() throws IOException {
+    synchronized (this) {
+      if (scheduledCommit != null) {
+        scheduledCommit.cancel(false);
+        scheduledCommit = null;
+      }
+      if (pendingChanges == 0) {
+        return;
+      }
+      pendingChanges = 0;
+    }
+    committer.commit();
+  }
+
+  private void scheduledFlush() {
+    synchronized (this) {
+      scheduledCommit = null;
+    }
+    try {
+      flush();
+    } catch (IOException | AlreadyClosedException e) {
+      LOGGER.warn("Scheduled commit of the search index failed: " + e);
+    }
+  }
+}
@@ -0,0 +1,50 @@
+package org.jenkinsci.plugins.lucene.search.databackend;
+
+import java.io.IOException;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.CollectionTerminatedException;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.FilterCollector;
+import org.apache.lucene.search.FilterLeafCollector;
+import org.apache.lucene.search.LeafCollector;
+
+/**
+ * Stops collecting once a deadline has passed, keeping what has been collected until then. Unlike
+ * {@link org.apache.lucene.search.TimeLimitingCollector} it reads the clock itself, so it needs no
+ * timer thread of its own.
+ */
+class DeadlineCollector extends FilterCollector {
+  // The clock is read once every this many collected documents
+  private static final int CHECK_INTERVAL = 256;
+
+  private final long deadline;
+
+  /** Collects into {@code in} until {@link System#nanoTime()} reaches {@code deadline}. */
+  DeadlineCollector(Collector in, long deadline) {
+    super(in);
+    this.deadline = deadline;
+  }
+
+  private boolean isExpired() {
+    return System.nanoTime() - deadline >= 0;
+  }
+
+  @Override
+  public LeafCollector getLeafCollector(LeafReaderContext context) throws IOException {
+    // The searcher moves on to the next segment, which is skipped just the same
+    if (isExpired()) {
+      throw new CollectionTerminatedException();
+    }
+    return new FilterLeafCollector(super.getLeafCollector(context)) {
+      private int collected;
+
+      @Override
+      public void collect(int doc) throws IOException {
+        if (++collected % CHECK_INTERVAL == 0 && isExpired()) {
+          throw new CollectionTerminatedException();
+        }
+        super.collect(doc);
+      }
+    };
+  }
+}
@@ -0,0 +1,22 @@
+package org.jenkinsci.plugins.lucene.search.databackend;
+
+/** How eagerly changes to the search index are committed to disk. */
+public enum Durability {
+  /** Commit after every stored or removed build. Safest, but costs one fsync per build. */
+  EVERY_CHANGE("Commit every change"),
+  /**
+   * Collect changes and commit them together once the commit interval has elapsed or enough
+   * changes are pending. A crash loses at most the changes of the last interval.
+   */
+  GROUPED("Group commits");
+
+  private final String displayName;
+
+  Durability(String displayName) {
+    this.displayName = displayName;
+  }
+
+  public String getDisplayName() {
+    return displayName;
+  }
+}
@@ -0,0 +1,29 @@
+package org.jenkinsci.plugins.lucene.search.databackend;
+
+import java.util.Collections;
+import java.util.List;
+import org.jenkinsci.plugins.lucene.search.FreeTextSearchItemImplementation;
+
+/**
+ * A page of hits of a search, with the cursor to search for the page after it. Cursors are opaque
+ * to everyone but the backend that made them; the client hands them back to page on, so nothing
+ * about a search needs to be remembered on the server between pages.
+ */
+public class HitPage {
+  private final List<FreeTextSearchItemImplementation> hits;
+  private final String nextCursor;
+
+  public HitPage(List<FreeTextSearchItemImplementation> hits, String nextCursor) {
+    this.hits = Collections.unmodifiableList(hits);
+    this.nextCursor = nextCursor;
+  }
+
+  public List<FreeTextSearchItemImplementation> getHits() {
+    return hits;
+  }
+
+  /** The cursor of the next page, or null if this is the last page. */
+  public String getNextCursor() {
+    return nextCursor;
+  }
+}
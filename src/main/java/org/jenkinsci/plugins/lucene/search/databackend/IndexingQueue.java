@@ -0,0 +1,196 @@
+package org.jenkinsci.plugins.lucene.search.databackend;
+
+import hudson.model.Run;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.log4j.Logger;
+
+/**
+ * Indexes builds on a small pool of background workers, so that finishing a build never waits for
+ * the search index. Builds are queued by their externalizable id; a build that is already waiting
+ * is not queued twice. When the bounded queue is full, or once the queue has been closed, builds
+ * are appended to a pending file instead, which is drained again whenever the queue runs empty
+ * and when Jenkins starts.
+ */
+class IndexingQueue {
+  private static final Logger LOGGER = Logger.getLogger(IndexingQueue.class);
+  private static final long SHUTDOWN_TIMEOUT_SECONDS = 30;
+
+  private final RunWithArgument<Run<?, ?>> indexer;
+  private final File pendingFile;
+  private final Object pendingLock = new Object();
+  private final int workers;
+  private final int capacity;
+  private final ThreadPoolExecutor executor;
+  private final Set<String> queued = ConcurrentHashMap.newKeySet();
+  private final AtomicInteger outstanding = new AtomicInteger();
+
+  IndexingQueue(RunWithArgument<Run<?, ?>> indexer, File pendingFile, int workers, int capacity) {
+    this.indexer = indexer;
+    this.pendingFile = pendingFile;
+    this.workers = workers;
+    this.capacity = capacity;
+    executor =
+        new ThreadPoolExecutor(
+            workers,
+            workers,
+            60,
+            TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(capacity),
+            new NamingThreadFactory(new DaemonThreadFactory(), "Lucene search indexer"),
+            (task, pool) -> ((IndexTask) task).spill());
+    executor.allowCoreThreadTimeOut(true);
+  }
+
+  int getWorkers() {
+    return workers;
+  }
+
+  int getCapacity() {
+    return capacity;
+  }
+
+  void add(Run<?, ?> run) {
+    add(run.getExternalizableId());
+  }
+
+  /** Queues the build with this externalizable id, which is looked up once it is indexed. */
+  void add(String id) {
+    if (!queued.add(id)) {
+      return;
+    }
+    outstanding.incrementAndGet();
+    executor.execute(new IndexTask(id));
+  }
+
+  /** Moves as many builds from the pending file into the queue as currently fit. */
+  void drainPending() {
+    List<String> ids;
+    synchronized (pendingLock) {
+      if (executor.isShutdown() || !pendingFile.exists()) {
+        return;
+      }
+      try {
+        List<String> lines = Files.readAllLines(pendingFile.toPath(), StandardCharsets.UTF_8);
+        int room = Math.min(lines.size(), executor.getQueue().remainingCapacity());
+        ids = new ArrayList<>(lines.subList(0, room));
+        List<String> rest = lines.subList(room, lines.size());
+        if (rest.isEmpty()) {
+          Files.delete(pendingFile.toPath());
+        } else {
+          Files.write(pendingFile.toPath(), rest, StandardCharsets.UTF_8);
+        }
+      } catch (IOException e) {
+        LOGGER.error("Could not read builds waiting for indexing from " + pendingFile, e);
+        return;
+      }
+    }
+    for (String id : ids) {
+      if (!id.isEmpty()) {
+        add(id);
+      }
+    }
+  }
+
+  private void appendPending(List<String> ids) {
+    synchronized (pendingLock) {
+      try {
+        Files.write(
+            pendingFile.toPath(),
+            ids,
+            StandardCharsets.UTF_8,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.APPEND);
+      } catch (IOException e) {
+        LOGGER.error("Could not remember builds waiting for indexing: " + ids, e);
+      }
+    }
+  }
+
+  /**
+   * Stops accepting work, writes every build still waiting to the pending file and waits for the
+   * builds currently being indexed.
+   */
+  void close() {
+    List<Runnable> waiting = new ArrayList<>();
+    executor.getQueue().drainTo(waiting);
+    executor.shutdown();
+    List<String> ids = new ArrayList<>(waiting.size());
+    for (Runnable task : waiting) {
+      IndexTask indexTask = (IndexTask) task;
+      queued.remove(indexTask.id);
+      outstanding.decrementAndGet();
+      ids.add(indexTask.id);
+    }
+    if (!ids.isEmpty()) {
+      appendPending(ids);
+    }
+    try {
+      if (!executor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+        LOGGER.warn("Timed out waiting for builds being indexed");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /** Waits until every queued build has been indexed or spilled to the pending file. */
+  boolean awaitIdle(long timeoutMillis) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + timeoutMillis;
+    while (outstanding.get() > 0) {
+      if (System.currentTimeMillis() > deadline) {
+        return false;
+      }
+      Thread.sleep(50);
+    }
+    return true;
+  }
+
+  private class IndexTask implements Runnable {
+    private final String id;
+
+    IndexTask(String id) {
+      this.id = id;
+    }
+
+    @Override
+    public void run() {
+      queued.remove(id);
+      try (ACLContext ignored = ACL.as2(ACL.SYSTEM2)) {
+        Run<?, ?> run = Run.fromExternalizableId(id);
+        if (run != null) {
+          indexer.run(run);
+        }
+      } catch (RuntimeException e) {
+        LOGGER.error("Indexing " + id + " failed: ", e);
+      } finally {
+        outstanding.decrementAndGet();
+      }
+      if (executor.getQueue().isEmpty()) {
+        drainPending();
+      }
+    }
+
+    void spill() {
+      queued.remove(id);
+      outstanding.decrementAndGet();
+      appendPending(Collections.singletonList(id));
+    }
+  }
+}
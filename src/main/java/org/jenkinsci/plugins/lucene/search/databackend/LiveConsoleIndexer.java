@@ -0,0 +1,226 @@
+package org.jenkinsci.plugins.lucene.search.databackend;
+
+import hudson.console.ConsoleNote;
+import hudson.console.LineTransformationOutputStream;
+import hudson.model.Run;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.apache.log4j.Logger;
+import org.jenkinsci.plugins.lucene.search.ConsoleLineReader;
+
+/**
+ * Indexes the console of running builds in chunks of {@link SearchBackend#CONSOLE_CHUNK_LINES}
+ * lines while it is being written. Chunks are written by a single background thread through a
+ * bounded queue, so a build never waits for the index. If the queue overflows or a chunk cannot be
+ * written, the build is marked degraded and is indexed in full once it has finished instead.
+ */
+class LiveConsoleIndexer {
+  private static final Logger LOGGER = Logger.getLogger(LiveConsoleIndexer.class);
+  private static final int QUEUE_SIZE = 100;
+  private static final long FINISH_TIMEOUT_MILLIS = 30000;
+
+  interface ChunkWriter {
+    void write(Run<?, ?> run, int firstLine, String text) throws IOException;
+  }
+
+  private final ChunkWriter writer;
+  private final Map<String, ConsoleTap> taps = new ConcurrentHashMap<>();
+  private final ThreadPoolExecutor executor;
+
+  LiveConsoleIndexer(ChunkWriter writer) {
+    this.writer = writer;
+    executor =
+        new ThreadPoolExecutor(
+            1,
+            1,
+            60,
+            TimeUnit.SECONDS,
+            new ArrayBlockingQueue<>(QUEUE_SIZE),
+            new NamingThreadFactory(new DaemonThreadFactory(), "Lucene search console indexer"));
+    executor.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * Wraps the log of a running build. Only the first {@code headBytes} bytes are indexed, the rest
+   * is left for the final indexing of the finished build.
+   */
+  OutputStream tap(Run<?, ?> run, OutputStream logger, long headBytes) {
+    ConsoleTap tap = new ConsoleTap(run, logger, headBytes);
+    taps.put(run.getExternalizableId(), tap);
+    return tap;
+  }
+
+  /**
+   * Waits for the chunks of a finished build to be written, and stops tracking it.
+   *
+   * @return the number of leading console lines that are indexed, or 0 if the console must be
+   *     indexed in full
+   */
+  int finish(Run<?, ?> run) {
+    ConsoleTap tap = taps.remove(run.getExternalizableId());
+    if (tap == null) {
+      return 0;
+    }
+    int indexedLines;
+    try {
+      indexedLines = tap.awaitWritten(FINISH_TIMEOUT_MILLIS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      tap.degrade();
+      indexedLines = 0;
+    }
+    if (indexedLines == 0) {
+      // The console is indexed in full instead, which a chunk written later would duplicate
+      tap.awaitWriting();
+    }
+    return indexedLines;
+  }
+
+  /**
+   * Stops tracking a build, for instance because it has been deleted. Returns once no more chunks
+   * of it can be written.
+   */
+  void discard(Run<?, ?> run) {
+    ConsoleTap tap = taps.remove(run.getExternalizableId());
+    if (tap != null) {
+      tap.degrade();
+      tap.awaitWriting();
+    }
+  }
+
+  void close() {
+    taps.values().forEach(ConsoleTap::degrade);
+    taps.clear();
+    executor.shutdownNow();
+  }
+
+  private final class ConsoleTap extends LineTransformationOutputStream.Delegating {
+    private final Run<?, ?> run;
+    private final Charset charset;
+    private final long headBytes;
+    private final StringBuilder chunk = new StringBuilder();
+    // Held while a chunk is written, so no chunk is written once the tap has been degraded
+    private final Object writeLock = new Object();
+    private long bytes;
+    private int lines;
+    private int chunkLines;
+    private int submittedLines;
+    private int pendingChunks;
+    private boolean degraded;
+
+    ConsoleTap(Run<?, ?> run, OutputStream out, long headBytes) {
+      super(out);
+      this.run = run;
+      this.charset = run.getCharset();
+      this.headBytes = headBytes;
+    }
+
+    @Override
+    protected void eol(byte[] b, int len) throws IOException {
+      out.write(b, 0, len);
+      collect(b, len);
+    }
+
+    private synchronized void collect(byte[] b, int len) {
+      long lineStart = bytes;
+      bytes += len;
+      lines++;
+      if (degraded || lineStart >= headBytes) {
+        return;
+      }
+      int end = len;
+      if (end > 0 && b[end - 1] == '\n') {
+        end--;
+      }
+      if (end > 0 && b[end - 1] == '\r') {
+        end--;
+      }
+      end = Math.min(end, ConsoleLineReader.MAX_LINE_BYTES);
+      chunk.append(ConsoleNote.removeNotes(new String(b, 0, end, charset))).append('\n');
+      chunkLines++;
+      if (chunkLines >= SearchBackend.CONSOLE_CHUNK_LINES) {
+        submit();
+      }
+    }
+
+    private void submit() {
+      int firstLine = lines - chunkLines + 1;
+      String text = chunk.toString();
+      chunk.setLength(0);
+      chunkLines = 0;
+      try {
+        executor.execute(() -> write(firstLine, text));
+        pendingChunks++;
+        submittedLines = lines;
+      } catch (RejectedExecutionException e) {
+        LOGGER.warn(
+            "Console indexer is falling behind, indexing "
+                + run.getExternalizableId()
+                + " once it has finished");
+        degraded = true;
+      }
+    }
+
+    private void write(int firstLine, String text) {
+      boolean written = false;
+      try {
+        synchronized (writeLock) {
+          if (!isDegraded()) {
+            writer.write(run, firstLine, text);
+            written = true;
+          }
+        }
+      } catch (IOException | RuntimeException e) {
+        LOGGER.warn("Could not index console of running build " + run.getExternalizableId(), e);
+      } finally {
+        chunkWritten(written);
+      }
+    }
+
+    private synchronized boolean isDegraded() {
+      return degraded;
+    }
+
+    private synchronized void degrade() {
+      degraded = true;
+      notifyAll();
+    }
+
+    private synchronized void chunkWritten(boolean written) {
+      pendingChunks--;
+      if (!written) {
+        degraded = true;
+      }
+      notifyAll();
+    }
+
+    /** Waits for the chunk being written, if any. Chunks written after a degrade are skipped. */
+    void awaitWriting() {
+      synchronized (writeLock) {
+        // Only waits for the lock
+      }
+    }
+
+    synchronized int awaitWritten(long timeoutMillis) throws InterruptedException {
+      long deadline = System.currentTimeMillis() + timeoutMillis;
+      while (pendingChunks > 0 && !degraded) {
+        long remaining = deadline - System.currentTimeMillis();
+        if (remaining <= 0) {
+          degraded = true;
+          break;
+        }
+        wait(remaining);
+      }
+      return degraded ? 0 : submittedLines;
+    }
+  }
+}
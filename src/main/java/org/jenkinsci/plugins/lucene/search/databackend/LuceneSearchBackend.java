@@ -2,31 +2,55 @@ package org.jenkinsci.plugins.lucene.search.databackend;
 
 import static org.jenkinsci.plugins.lucene.search.Field.*;
 
-import hudson.model.Item;
-import hudson.model.Job;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import hudson.Util;
 import hudson.model.Run;
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import jenkins.model.Jenkins;
+import jenkins.util.Timer;
 import org.apache.commons.io.IOUtils;
 import org.apache.log4j.Logger;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.document.Document;
+import org.apache.lucene.document.FieldType;
 import org.apache.lucene.document.LongPoint;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.document.StoredField;
 import org.apache.lucene.document.StringField;
 import org.apache.lucene.document.TextField;
 import org.apache.lucene.index.*;
-import org.apache.lucene.queryparser.classic.MultiFieldQueryParser;
 import org.apache.lucene.queryparser.classic.ParseException;
 import org.apache.lucene.queryparser.classic.QueryParser;
 import org.apache.lucene.search.*;
-import org.apache.lucene.search.highlight.*;
+import org.apache.lucene.search.uhighlight.DefaultPassageFormatter;
+import org.apache.lucene.search.uhighlight.Passage;
+import org.apache.lucene.search.uhighlight.PassageFormatter;
+import org.apache.lucene.search.uhighlight.UnifiedHighlighter;
+import org.apache.lucene.search.join.JoinUtil;
 import org.apache.lucene.store.AlreadyClosedException;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.jenkinsci.plugins.lucene.search.ConsoleLineReader;
+import org.jenkinsci.plugins.lucene.search.ConsoleLinesAction;
 import org.jenkinsci.plugins.lucene.search.Field;
 import org.jenkinsci.plugins.lucene.search.FreeTextSearchExtension;
 import org.jenkinsci.plugins.lucene.search.FreeTextSearchItemImplementation;
@@ -35,16 +59,27 @@ public class LuceneSearchBackend extends SearchBackend<Document> {
   private static final Logger LOGGER = Logger.getLogger(LuceneSearchBackend.class);
 
   private static final int MAX_NUM_FRAGMENTS = 5;
+  private static final String[] CONSOLE_FIELDS = {CONSOLE.fieldName};
+  private static final int[] MAX_CONSOLE_FRAGMENTS = {MAX_NUM_FRAGMENTS};
   private static final String[] EMPTY_ARRAY = new String[0];
-  private static final Locale LOCALE = Locale.ENGLISH;
   private static final Pattern TERM_PATTERN =
-      Pattern.compile("(?<field>\\S+:)?(?<text>[^\\\"]\\S*|\\\".+?\\\")\\s*");
+      Pattern.compile(
+          "(?<field>\\S+:)?"
+              + "(?<text>(?<range>[\\[{]\\S+ TO \\S+[\\]}])|[^\\\"]\\S*|\\\".+?\\\")\\s*");
 
   private static final org.apache.lucene.document.Field.Store DONT_STORE =
       org.apache.lucene.document.Field.Store.NO;
   private static final org.apache.lucene.document.Field.Store STORE =
       org.apache.lucene.document.Field.Store.YES;
 
+  /** The console is indexed with offsets, so highlighting does not need to analyze it again. */
+  private static final FieldType CONSOLE_FIELD_TYPE = new FieldType(TextField.TYPE_STORED);
+
+  static {
+    CONSOLE_FIELD_TYPE.setIndexOptions(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS_AND_OFFSETS);
+    CONSOLE_FIELD_TYPE.freeze();
+  }
+
   private enum LuceneFieldType {
     STRING,
     LONG,
@@ -63,47 +98,259 @@ public class LuceneSearchBackend extends SearchBackend<Document> {
     FIELD_TYPE_MAP = Collections.unmodifiableMap(types);
   }
 
-  private static final Comparator<String> BUILD_COMPARATOR =
-      new Comparator<String>() {
-        @Override
-        public int compare(String o1, String o2) {
-          if (o2 == null) {
-            return 1;
-          }
-          return o2.compareTo(o1);
-        }
-      };
-
   private static final int MAX_HITS_PER_PAGE = 100;
 
+  /**
+   * A build is indexed as one document with its metadata, identified by the externalizable id of
+   * the build in this field, and one document per chunk of its console.
+   */
+  static final String BUILD_ID = "_id";
+  /** The externalizable id of the build a document belongs to, on builds and chunks alike. */
+  static final String BUILD = "_build";
+  /** The full name of the job a document belongs to, on builds and chunks alike. */
+  static final String JOB = "_job";
+  /** The number of the first console line in a chunk. */
+  static final String CHUNK_LINE = "_line";
+  /** A hash of the metadata of a build, to tell whether it changed since it was indexed. */
+  static final String FINGERPRINT = "_fp";
+  /** The length of the console log of a build, indexed once the log is final. */
+  static final String LOG_LENGTH = "_log";
+  /** The build number as doc value, on build documents only. */
+  static final String NUMBER = "_number";
+  /** The start time of the build as doc value, on build documents only. */
+  static final String TIMESTAMP = "_timestamp";
+  /** The url of the build, relative to the Jenkins root, so hits are listed without loading it. */
+  static final String URL = "_url";
+  /** The url of the job of the build, relative to the Jenkins root. */
+  static final String JOB_URL = "_jobUrl";
+
+  /** The only stored fields read to list a hit; the console is read by highlighting alone. */
+  private static final Set<String> LISTING_FIELDS =
+      Set.of(
+          PROJECT_NAME.fieldName,
+          BUILD_NUMBER.fieldName,
+          BUILD_DISPLAY_NAME.fieldName,
+          BUILD_ID,
+          URL,
+          JOB_URL);
+
+  private static final Set<String> CHUNK_FIELDS = Set.of(CHUNK_LINE);
+
+  private static final Set<String> FINGERPRINT_FIELDS = Set.of(FINGERPRINT, LOG_LENGTH);
+
+  private static final String INDEX_VERSION_KEY = "indexVersion";
+  /** Changes whenever documents are laid out differently; older indexes are recreated. */
+  static final String INDEX_VERSION = "9";
+
+  /**
+   * Builds are sorted newest first within every segment, and console chunks come after them. Every
+   * writer whose segments are added to the index must sort them the same way.
+   */
+  private static final Sort NEWEST_FIRST =
+      new Sort(new SortField(TIMESTAMP, SortField.Type.LONG, true));
+
+  static final long DEFAULT_SEARCHER_REFRESH_INTERVAL = 1000;
+  static final long DEFAULT_COMMIT_INTERVAL = 1000;
+  static final int DEFAULT_MAX_UNCOMMITTED_CHANGES = 100;
+  static final long DEFAULT_HIGHLIGHT_BUDGET = 500;
+  static final long DEFAULT_SUGGESTION_BUDGET = 100;
+  /** How many more builds are looked up than suggested, as some may be deleted or not visible. */
+  private static final int SUGGESTION_LOOKUP_FACTOR = 4;
+  /** How long a searcher is kept for cursors after a newer searcher has replaced it. */
+  private static final double CURSOR_SEARCHER_MAX_AGE_SECONDS = 600;
+  /** The indexing buffer of each private writer of a full rebuild, which never flushes early. */
+  private static final double REBUILD_RAM_BUFFER_MB = 64;
+  /** How many builds are deleted from the live index per call before merging a full rebuild. */
+  private static final int REBUILD_DELETE_BATCH = 1024;
+
+  private final File indexPath;
   private final Directory index;
   private final Analyzer analyzer;
+  private final QueryPlanner queryPlanner;
   private final IndexWriter dbWriter;
-  private final Jenkins jenkins;
-  private volatile ScoreDoc lastDoc;
+  private final SearcherManager searcherManager;
+  // Keeps the searchers that handed out cursors, so the next pages are read from the same reader
+  private final SearcherLifetimeManager cursorSearchers = new SearcherLifetimeManager();
+  private final ScheduledFuture<?> searcherRefresher;
+  private final CommitScheduler commitScheduler;
+  private final long consoleMaxBytes;
+  private final long consoleTailBytes;
+  private final long highlightBudget;
+  private final long suggestionBudget;
+  private final BuildSuggester suggester;
+  // The full names of the jobs with documents in the index, to tell a job name from a search term
+  private final Set<String> jobNames = ConcurrentHashMap.newKeySet();
+  // Keyed by the identity of the sets of visible jobs, which are cached per user by the caller
+  private final Cache<Set<String>, Query> jobFilters = Caffeine.newBuilder().weakKeys().build();
+  // Set whenever the writer holds changes the shared searcher has not seen yet
+  private volatile boolean searcherStale;
+  // Held for writing while a full rebuild replaces the builds of its jobs, so the index is neither
+  // searched nor committed with the old builds deleted but the new ones not added yet
+  private final ReadWriteLock publishLock = new ReentrantReadWriteLock();
 
-  public LuceneSearchBackend(final File indexPath) throws IOException {
+  public LuceneSearchBackend(final Map<String, Object> config) throws IOException {
     analyzer = new CaseSensitiveAnalyzer();
+    queryPlanner = new QueryPlanner(analyzer, this::getAllDefaultSearchableFields);
+    indexPath = getIndexPath(config);
     index = FSDirectory.open(indexPath.toPath());
-    IndexWriterConfig config = new IndexWriterConfig(analyzer);
-    dbWriter = new IndexWriter(index, config);
+    IndexWriterConfig writerConfig = new IndexWriterConfig(analyzer);
+    writerConfig.setIndexSort(NEWEST_FIRST);
+    if (!hasCurrentVersion(index)) {
+      LOGGER.warn(
+          "Recreating the search index at "
+              + indexPath
+              + " because it has an outdated layout; rebuild it from the Lucene search manager");
+      writerConfig.setOpenMode(IndexWriterConfig.OpenMode.CREATE);
+      // An interrupted rebuild of the outdated index cannot be resumed
+      Util.deleteRecursive(getRebuildPath());
+      Files.deleteIfExists(
+          new File(indexPath.getParentFile(), indexPath.getName() + "-rebuild.xml").toPath());
+    }
+    dbWriter = new IndexWriter(index, writerConfig);
+    dbWriter.setLiveCommitData(
+        Collections.singletonMap(INDEX_VERSION_KEY, INDEX_VERSION).entrySet());
     dbWriter.commit();
-    jenkins = Jenkins.get();
+    searcherManager = new SearcherManager(dbWriter, null);
+    loadJobNames();
+    commitScheduler =
+        new CommitScheduler(
+            this::commit,
+            getDurability(config),
+            getLong(config, "commitInterval", 1, DEFAULT_COMMIT_INTERVAL),
+            (int) getLong(config, "maxUncommittedChanges", 1, DEFAULT_MAX_UNCOMMITTED_CHANGES));
+    long searcherRefreshInterval =
+        getLong(config, "searcherRefreshInterval", 1, DEFAULT_SEARCHER_REFRESH_INTERVAL);
+    searcherRefresher =
+        Timer.get()
+            .scheduleWithFixedDelay(
+                this::refreshSearcher,
+                searcherRefreshInterval,
+                searcherRefreshInterval,
+                TimeUnit.MILLISECONDS);
+    consoleMaxBytes = getLong(config, "consoleMaxBytes", 0, 0);
+    consoleTailBytes = getLong(config, "consoleTailBytes", 0, 0);
+    highlightBudget = getLong(config, "highlightBudget", 0, DEFAULT_HIGHLIGHT_BUDGET);
+    suggestionBudget = getLong(config, "suggestionBudget", 1, DEFAULT_SUGGESTION_BUDGET);
+    suggester =
+        new BuildSuggester(new File(indexPath.getParentFile(), indexPath.getName() + "-suggest"));
   }
 
   public static LuceneSearchBackend create(final Map<String, Object> config) {
     try {
-      return new LuceneSearchBackend(getIndexPath(config));
+      return new LuceneSearchBackend(config);
     } catch (IOException e) {
       LOGGER.error("create lucene search backend failed: " + e);
     }
     return null;
   }
 
+  private void loadJobNames() throws IOException {
+    IndexSearcher searcher = acquireSearcher();
+    try {
+      Terms terms = MultiTerms.getTerms(searcher.getIndexReader(), JOB);
+      if (terms != null) {
+        TermsEnum termsEnum = terms.iterator();
+        for (BytesRef term = termsEnum.next(); term != null; term = termsEnum.next()) {
+          jobNames.add(term.utf8ToString());
+        }
+      }
+    } finally {
+      releaseSearcher(searcher);
+    }
+  }
+
+  private File getRebuildPath() {
+    return new File(indexPath.getParentFile(), indexPath.getName() + "-rebuild");
+  }
+
+  private static boolean hasCurrentVersion(Directory index) throws IOException {
+    if (!DirectoryReader.indexExists(index)) {
+      return true;
+    }
+    Map<String, String> userData = SegmentInfos.readLatestCommit(index).getUserData();
+    return INDEX_VERSION.equals(userData.get(INDEX_VERSION_KEY));
+  }
+
   private static File getIndexPath(final Map<String, Object> config) {
     return (File) config.get("lucenePath");
   }
 
+  /** Returns the setting, or {@code defaultValue} if it is missing or less than {@code min}. */
+  private static long getLong(
+      final Map<String, Object> config, String key, long min, long defaultValue) {
+    Object value = config.get(key);
+    if (value instanceof Number && ((Number) value).longValue() >= min) {
+      return ((Number) value).longValue();
+    }
+    return defaultValue;
+  }
+
+  private static Durability getDurability(final Map<String, Object> config) {
+    Object value = config.get("durability");
+    return value instanceof Durability ? (Durability) value : Durability.GROUPED;
+  }
+
+  /**
+   * Returns the shared near-real-time searcher, reopening it first if the writer has changes it
+   * has not seen yet. Every acquired searcher must be handed back with {@link
+   * #releaseSearcher(IndexSearcher)}.
+   */
+  private IndexSearcher acquireSearcher() throws IOException {
+    // While a full rebuild is published, the searcher from before is used
+    if (searcherStale && publishLock.readLock().tryLock()) {
+      try {
+        searcherStale = false;
+        searcherManager.maybeRefreshBlocking();
+      } finally {
+        publishLock.readLock().unlock();
+      }
+    }
+    return searcherManager.acquire();
+  }
+
+  private void releaseSearcher(IndexSearcher searcher) throws IOException {
+    searcherManager.release(searcher);
+  }
+
+  private void refreshSearcher() {
+    try {
+      cursorSearchers.prune(
+          new SearcherLifetimeManager.PruneByAge(CURSOR_SEARCHER_MAX_AGE_SECONDS));
+      if (!searcherStale || !publishLock.readLock().tryLock()) {
+        return;
+      }
+      try {
+        searcherStale = false;
+        if (!searcherManager.maybeRefresh()) {
+          // Another thread is refreshing and may have missed the changes, so try again next time
+          searcherStale = true;
+        }
+      } finally {
+        publishLock.readLock().unlock();
+      }
+      suggester.refresh();
+    } catch (IOException | AlreadyClosedException e) {
+      LOGGER.warn("Failed to refresh searcher: " + e);
+    }
+  }
+
+  private void commit() throws IOException {
+    publishLock.readLock().lock();
+    try {
+      dbWriter.commit();
+    } finally {
+      publishLock.readLock().unlock();
+    }
+    suggester.commit();
+    searcherStale = true;
+    refreshSearcher();
+  }
+
+  private void changed() throws IOException {
+    searcherStale = true;
+    commitScheduler.changed();
+  }
+
   @Override
   public SearchBackend<Document> reconfigure(final Map<String, Object> newConfig) {
     close();
@@ -111,20 +358,19 @@ public class LuceneSearchBackend extends SearchBackend<Document> {
   }
 
   public void close() {
+    searcherRefresher.cancel(false);
+    try {
+      commitScheduler.flush();
+    } catch (IOException | AlreadyClosedException e) {
+      LOGGER.warn("Failed to commit pending changes on close: " + e);
+    }
+    IOUtils.closeQuietly(cursorSearchers);
+    IOUtils.closeQuietly(suggester);
+    IOUtils.closeQuietly(searcherManager);
     IOUtils.closeQuietly(dbWriter);
     IOUtils.closeQuietly(index);
   }
 
-  private Long getWithDefault(String number, Long defaultNumber) {
-    if (number != null) {
-      Long l = Long.getLong(number);
-      if (l != null) {
-        return l;
-      }
-    }
-    return defaultNumber;
-  }
-
   private static Set<String> calculateQueryFieldsRecursively(Query query) {
     Set<String> fields = new HashSet<>();
 
@@ -153,245 +399,1110 @@ public class LuceneSearchBackend extends SearchBackend<Document> {
     return fields;
   }
 
-  private Pair<Query, Query, Boolean> parseQuery(String q, IndexSearcher searcher)
-      throws ParseException, IOException {
+  private Pair<Query, Query, Boolean> parseQuery(
+      String q, IndexSearcher searcher, ChunkJoin chunkJoin) throws ParseException, IOException {
 
     List<String> words = new ArrayList<>(Arrays.asList(q.trim().split("\\s+", 2)));
     words.removeAll(Arrays.asList("", null));
 
-    QueryParser parser = getQueryParser();
-    Query query = parser.parse(escapeQuery(q));
-    Query highlight = query;
+    Query query = null;
+    Query highlight = null;
 
-    if (words.size() >= 2) {
+    // A first word that is the full name of an indexed job restricts the search to that job
+    if (words.size() >= 2 && jobNames.contains(words.get(0))) {
       try {
-        Query jobNameQuery =
-            parser.parse(PROJECT_NAME.fieldName + ":" + QueryParser.escape(words.get(0)));
-        if (searcher.search(jobNameQuery, 1).scoreDocs.length > 0) {
-          highlight = parser.parse(escapeQuery(words.get(1)));
-          query =
-              new BooleanQuery.Builder()
-                  .add(jobNameQuery, BooleanClause.Occur.MUST)
-                  .add(highlight, BooleanClause.Occur.MUST)
-                  .build();
-        }
+        highlight = queryPlanner.parse(words.get(1));
+        query =
+            new BooleanQuery.Builder()
+                .add(new TermQuery(new Term(JOB, words.get(0))), BooleanClause.Occur.FILTER)
+                .add(highlight, BooleanClause.Occur.MUST)
+                .build();
       } catch (ParseException e) {
         // proceed with multi-job search
       }
     }
+    if (query == null) {
+      query = queryPlanner.parse(q);
+      highlight = query;
+    }
 
     Set<String> fields = calculateQueryFieldsRecursively(highlight);
-    return new Pair<>(
-        query.rewrite(searcher.getIndexReader()),
-        highlight.rewrite(searcher.getIndexReader()),
-        fields.contains(CONSOLE.fieldName));
+    List<Query> consoleQueries = new ArrayList<>();
+    query =
+        joinConsoleQueries(
+            query.rewrite(searcher.getIndexReader()), searcher, chunkJoin, consoleQueries);
+    Query chunkQuery = null;
+    if (!consoleQueries.isEmpty()) {
+      BooleanQuery.Builder chunkQueryBuilder = new BooleanQuery.Builder();
+      for (Query consoleQuery : consoleQueries) {
+        chunkQueryBuilder.add(consoleQuery, BooleanClause.Occur.SHOULD);
+      }
+      chunkQuery = chunkQueryBuilder.build();
+    }
+    return new Pair<>(query, chunkQuery, fields.contains(CONSOLE.fieldName));
+  }
+
+  /**
+   * Replaces the parts of the query that only search the console by joins from the matching
+   * console chunks to their build documents, so the query as a whole matches build documents.
+   * The replaced parts are added to {@code consoleQueries}.
+   */
+  private static Query joinConsoleQueries(
+      Query query, IndexSearcher searcher, ChunkJoin chunkJoin, List<Query> consoleQueries)
+      throws IOException {
+    boolean conjunction = false;
+    if (query instanceof BooleanQuery) {
+      for (BooleanClause clause : ((BooleanQuery) query).clauses()) {
+        conjunction |= clause.getOccur() != BooleanClause.Occur.SHOULD;
+      }
+    }
+    // Terms that must all match may be spread over several chunks, so they are joined one by one
+    if (!conjunction && getQueryFields(query).equals(Collections.singleton(CONSOLE.fieldName))) {
+      consoleQueries.add(query);
+      return chunkJoin.join(query, searcher);
+    }
+    if (query instanceof BooleanQuery) {
+      BooleanQuery booleanQuery = (BooleanQuery) query;
+      BooleanQuery.Builder builder = new BooleanQuery.Builder();
+      builder.setMinimumNumberShouldMatch(booleanQuery.getMinimumNumberShouldMatch());
+      for (BooleanClause clause : booleanQuery.clauses()) {
+        builder.add(
+            joinConsoleQueries(clause.getQuery(), searcher, chunkJoin, consoleQueries),
+            clause.getOccur());
+      }
+      return builder.build();
+    }
+    if (query instanceof BoostQuery) {
+      BoostQuery boostQuery = (BoostQuery) query;
+      return new BoostQuery(
+          joinConsoleQueries(boostQuery.getQuery(), searcher, chunkJoin, consoleQueries),
+          boostQuery.getBoost());
+    }
+    return query;
+  }
+
+  /** Turns a query of console chunks into a query of the builds they belong to. */
+  private interface ChunkJoin {
+    Query join(Query chunkQuery, IndexSearcher searcher) throws IOException;
+  }
+
+  /** Joins all matching chunks, scoring every build by its best chunk. */
+  private static final ChunkJoin FULL_JOIN =
+      (chunkQuery, searcher) ->
+          JoinUtil.createJoinQuery(
+              BUILD,
+              false,
+              BUILD_ID,
+              chunkQuery,
+              searcher,
+              org.apache.lucene.search.join.ScoreMode.Max);
+
+  /**
+   * Joins the chunks that match before the deadline, without scores. The join itself searches the
+   * chunks, so it has to stop at the deadline as well.
+   */
+  private static ChunkJoin joinUntil(long deadline) {
+    return (chunkQuery, searcher) -> {
+      Set<BytesRef> buildIds = new HashSet<>();
+      searcher.search(
+          chunkQuery,
+          new DeadlineCollector(
+              new SimpleCollector() {
+                private SortedDocValues builds;
+
+                @Override
+                protected void doSetNextReader(LeafReaderContext context) throws IOException {
+                  builds = DocValues.getSorted(context.reader(), BUILD);
+                }
+
+                @Override
+                public void collect(int doc) throws IOException {
+                  if (builds.advanceExact(doc)) {
+                    buildIds.add(BytesRef.deepCopyOf(builds.lookupOrd(builds.ordValue())));
+                  }
+                }
+
+                @Override
+                public ScoreMode scoreMode() {
+                  return ScoreMode.COMPLETE_NO_SCORES;
+                }
+              },
+              deadline));
+      return new TermInSetQuery(BUILD_ID, buildIds);
+    };
+  }
+
+  private static Set<String> getQueryFields(Query query) {
+    Set<String> fields = new HashSet<>();
+    query.visit(
+        new QueryVisitor() {
+          @Override
+          public boolean acceptField(String field) {
+            fields.add(field);
+            return false;
+          }
+        });
+    return fields;
+  }
+
+  @Override
+  public long getIndexGeneration() throws IOException {
+    IndexSearcher searcher = acquireSearcher();
+    try {
+      return ((DirectoryReader) searcher.getIndexReader()).getVersion();
+    } finally {
+      releaseSearcher(searcher);
+    }
   }
 
   @SuppressWarnings("rawtypes")
   @Override
-  public List<FreeTextSearchItemImplementation> getHits(String q, boolean searchNext) {
-    List<FreeTextSearchItemImplementation> luceneSearchResultImpl = new ArrayList<>();
+  public HitPage getHits(String q, String cursor, boolean newestFirst, Set<String> visibleJobs) {
     try {
-      IndexReader reader = DirectoryReader.open(index);
-      IndexSearcher searcher = new IndexSearcher(reader);
-      Pair<Query, Query, Boolean> fieldQueryPair = parseQuery(q, searcher);
-      Query query = fieldQueryPair.first;
-      Query highlight = fieldQueryPair.second;
-      Boolean isShowConsole = fieldQueryPair.third;
-
-      QueryTermScorer scorer = new QueryTermScorer(highlight);
-      Highlighter highlighter = new Highlighter(new SimpleHTMLFormatter(), scorer);
-      highlighter.setMaxDocCharsToAnalyze(Integer.MAX_VALUE);
-      ScoreDoc[] hits;
-      if (searchNext) {
-        hits = searcher.searchAfter(lastDoc, query, MAX_HITS_PER_PAGE).scoreDocs;
-      } else {
-        hits = searcher.searchAfter(null, query, MAX_HITS_PER_PAGE).scoreDocs;
+      Cursor after = Cursor.decode(cursor, newestFirst);
+      // The searcher of the cursor is gone once it has been replaced for long enough; its documents
+      // mean nothing to the current searcher, so the hits start over from the first page
+      IndexSearcher searcher = after == null ? null : cursorSearchers.acquire(after.version);
+      if (searcher != null) {
+        try {
+          return getHits(searcher, after.version, q, after.lastHit, newestFirst, visibleJobs);
+        } finally {
+          cursorSearchers.release(searcher);
+        }
       }
-      if (hits.length != 0) {
-        lastDoc = hits[hits.length - 1];
+      searcher = acquireSearcher();
+      try {
+        long version = cursorSearchers.record(searcher);
+        return getHits(searcher, version, q, null, newestFirst, visibleJobs);
+      } finally {
+        releaseSearcher(searcher);
       }
-      TreeMap<String, Document> docs = new TreeMap<>(BUILD_COMPARATOR);
+    } catch (ParseException e) {
+      // A query the user mistyped, not a fault of the index
+      LOGGER.debug("Search Parsing Error: ", e);
+    } catch (IOException e) {
+      LOGGER.warn("Search IO Error: ", e);
+    } catch (AlreadyClosedException e) {
+      LOGGER.warn("IndexReader is closed: ", e);
+    }
+    return new HitPage(new ArrayList<>(), null);
+  }
 
-      for (ScoreDoc hit : hits) {
-        Document doc = searcher.doc(hit.doc);
-        docs.put(doc.get(PROJECT_NAME.fieldName) + doc.get(BUILD_DISPLAY_NAME.fieldName), doc);
-      }
+  @SuppressWarnings("rawtypes")
+  private HitPage getHits(
+      IndexSearcher searcher,
+      long version,
+      String q,
+      ScoreDoc lastHit,
+      boolean newestFirst,
+      Set<String> visibleJobs)
+      throws ParseException, IOException {
+    if (lastHit != null
+        && (lastHit.doc >= searcher.getIndexReader().maxDoc()
+            || newestFirst != (lastHit instanceof FieldDoc))) {
+      LOGGER.debug("Ignoring a search cursor that does not fit its reader");
+      lastHit = null;
+    }
+    List<FreeTextSearchItemImplementation> luceneSearchResultImpl = new ArrayList<>();
+    Pair<Query, Query, Boolean> fieldQueryPair = parseQuery(q, searcher, FULL_JOIN);
+    Query query = filterJobs(fieldQueryPair.first, visibleJobs);
+    Query chunkQuery = fieldQueryPair.second;
+    Boolean isShowConsole = fieldQueryPair.third;
 
-      for (Document doc : docs.values()) {
-        String[] bestFragments = EMPTY_ARRAY;
-        try {
-          bestFragments =
-              highlighter.getBestFragments(
-                  analyzer, CONSOLE.fieldName, doc.get(CONSOLE.fieldName), MAX_NUM_FRAGMENTS);
-        } catch (InvalidTokenOffsetsException e) {
-          LOGGER.debug("Failed to find bestFragments", e);
+    ScoreDoc[] hits;
+    if (newestFirst) {
+      // The index is sorted the same way, so every segment stops collecting once the page is full
+      TopFieldCollector collector =
+          TopFieldCollector.create(
+              NEWEST_FIRST, MAX_HITS_PER_PAGE, (FieldDoc) lastHit, MAX_HITS_PER_PAGE);
+      searcher.search(query, collector);
+      hits = collector.topDocs().scoreDocs;
+    } else {
+      hits = searcher.searchAfter(lastHit, query, MAX_HITS_PER_PAGE).scoreDocs;
+    }
+    String nextCursor =
+        hits.length < MAX_HITS_PER_PAGE
+            ? null
+            : new Cursor(version, hits[hits.length - 1]).encode();
+    List<Document> docs = new ArrayList<>(hits.length);
+
+    for (ScoreDoc hit : hits) {
+      docs.add(searcher.doc(hit.doc, LISTING_FIELDS));
+    }
+
+    ChunkHighlighter highlighter = null;
+    if (chunkQuery != null) {
+      highlighter = new ChunkHighlighter(searcher, analyzer);
+    }
+    // Hits beyond the budget are listed without looking for their best chunk, so they link to the
+    // build rather than to a console line and have no fragments
+    long highlightDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(highlightBudget);
+
+    for (Document doc : docs) {
+      String[] bestFragments = EMPTY_ARRAY;
+      int consoleLine = 0;
+      int chunk =
+          highlighter == null || System.nanoTime() - highlightDeadline >= 0
+              ? -1
+              : findBestChunk(searcher, doc, chunkQuery);
+      if (chunk >= 0) {
+        Document chunkDoc = searcher.doc(chunk, CHUNK_FIELDS);
+        consoleLine = chunkDoc.getField(CHUNK_LINE).numericValue().intValue();
+        ChunkHighlight highlight = highlighter.highlight(chunkQuery, chunk);
+        if (highlight != null) {
+          bestFragments = highlight.fragments;
+          consoleLine += highlight.matchLine;
         }
+      }
 
-        String projectName = doc.get(PROJECT_NAME.fieldName);
-        String buildNumber = doc.get(BUILD_NUMBER.fieldName);
-        String searchName = doc.get(PROJECT_NAME.fieldName) + doc.get(BUILD_DISPLAY_NAME.fieldName);
+      String projectName = doc.get(PROJECT_NAME.fieldName);
+      String searchName = doc.get(PROJECT_NAME.fieldName) + doc.get(BUILD_DISPLAY_NAME.fieldName);
+      String url = doc.get(URL);
+      String consoleUrl = consoleLine > 0 ? ConsoleLinesAction.getUrl(url, consoleLine) : null;
+      luceneSearchResultImpl.add(
+          new FreeTextSearchItemImplementation(
+              searchName,
+              projectName,
+              bestFragments,
+              url,
+              isShowConsole,
+              consoleLine,
+              consoleUrl,
+              doc.get(JOB_URL)));
+    }
+    return new HitPage(luceneSearchResultImpl, nextCursor);
+  }
 
-        Item jobItem = jenkins.getItemByFullName(projectName);
-        if (!(jobItem instanceof Job)) {
-          throw new IllegalStateException("Unknown project type for project name: " + projectName);
+  @Override
+  public List<FreeTextSearchItemImplementation> getSuggestions(
+      String q, int count, Set<String> visibleJobs) {
+    if (q.trim().isEmpty()) {
+      return new ArrayList<>();
+    }
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(suggestionBudget);
+    // Keyed by url, so a build found both ways is suggested once
+    Map<String, FreeTextSearchItemImplementation> suggestions = new LinkedHashMap<>();
+    try {
+      IndexSearcher searcher = acquireSearcher();
+      try {
+        for (BuildSuggester.Suggestion suggestion :
+            suggester.lookup(q, count * SUGGESTION_LOOKUP_FACTOR)) {
+          if (suggestions.size() >= count) {
+            break;
+          }
+          if ((visibleJobs == null || visibleJobs.contains(suggestion.jobName))
+              && searcher.count(new TermQuery(new Term(BUILD_ID, suggestion.buildId))) > 0) {
+            suggestions.put(
+                suggestion.url,
+                new FreeTextSearchItemImplementation(
+                    suggestion.name, suggestion.jobName, EMPTY_ARRAY, suggestion.url, false));
+          }
         }
-        Job job = (Job) jobItem;
-        String url = job.getBuildByNumber(Integer.parseInt(buildNumber)).getUrl();
-        luceneSearchResultImpl.add(
-            new FreeTextSearchItemImplementation(
-                searchName, projectName, bestFragments, url, isShowConsole));
+        if (suggestions.size() < count) {
+          suggestMatchingBuilds(searcher, q, count, deadline, visibleJobs, suggestions);
+        }
+      } finally {
+        releaseSearcher(searcher);
       }
-      reader.close();
     } catch (ParseException e) {
-      //            LOGGER.warn("Search Parsing Error: ", e);
+      // Not a query yet, as the user is still typing it
     } catch (IOException e) {
-      LOGGER.warn("Search IO Error: ", e);
+      LOGGER.warn("Suggestion IO Error: ", e);
     } catch (AlreadyClosedException e) {
       LOGGER.warn("IndexReader is closed: ", e);
     }
-    return luceneSearchResultImpl;
+    return new ArrayList<>(suggestions.values());
   }
 
-  private MultiFieldQueryParser getQueryParser() {
-    MultiFieldQueryParser queryParser =
-        new MultiFieldQueryParser(getAllDefaultSearchableFields(), analyzer) {
-          @Override
-          protected Query getRangeQuery(
-              String field,
-              String part1,
-              String part2,
-              boolean startInclusive,
-              boolean endInclusive)
-              throws ParseException {
-            if (field != null && getIndex(field).numeric) {
-              Long min = getWithDefault(part1, null);
-              Long max = getWithDefault(part2, null);
-              return LongPoint.newRangeQuery(field, min, max);
-            } else if (field != null) {
-              return new TermQuery(new Term(field));
-            }
-            return super.getRangeQuery(null, part1, part2, startInclusive, endInclusive);
-          }
-        };
-    queryParser.setDefaultOperator(QueryParser.Operator.AND);
-    queryParser.setLocale(LOCALE);
-    queryParser.setAllowLeadingWildcard(true);
-    queryParser.setMultiTermRewriteMethod(MultiTermQuery.SCORING_BOOLEAN_REWRITE);
-    return queryParser;
+  /**
+   * Adds the builds that match the query to the suggestions, until there are {@code count}. Only
+   * the builds found before the deadline are added, and they are listed from their metadata
+   * alone, without looking for the lines of the console that matched.
+   */
+  private void suggestMatchingBuilds(
+      IndexSearcher searcher,
+      String q,
+      int count,
+      long deadline,
+      Set<String> visibleJobs,
+      Map<String, FreeTextSearchItemImplementation> suggestions)
+      throws ParseException, IOException {
+    Query query = filterJobs(parseQuery(q, searcher, joinUntil(deadline)).first, visibleJobs);
+    TopScoreDocCollector collector = TopScoreDocCollector.create(count, count);
+    // Suggests the builds found so far once the deadline has passed
+    searcher.search(query, new DeadlineCollector(collector, deadline));
+    for (ScoreDoc hit : collector.topDocs().scoreDocs) {
+      if (suggestions.size() >= count) {
+        break;
+      }
+      Document doc = searcher.doc(hit.doc, LISTING_FIELDS);
+      String url = doc.get(URL);
+      suggestions.putIfAbsent(
+          url,
+          new FreeTextSearchItemImplementation(
+              doc.get(PROJECT_NAME.fieldName) + doc.get(BUILD_DISPLAY_NAME.fieldName),
+              doc.get(PROJECT_NAME.fieldName),
+              EMPTY_ARRAY,
+              url,
+              false,
+              0,
+              null,
+              doc.get(JOB_URL)));
+    }
+  }
+
+  /** Restricts the query to the builds of the visible jobs, unless {@code visibleJobs} is null. */
+  private Query filterJobs(Query query, Set<String> visibleJobs) {
+    if (visibleJobs == null) {
+      return query;
+    }
+    // Filtering while searching keeps pages full, and invisible builds are never scored
+    Query jobFilter = jobFilters.get(visibleJobs, LuceneSearchBackend::getJobFilter);
+    return new BooleanQuery.Builder()
+        .add(query, BooleanClause.Occur.MUST)
+        .add(jobFilter, BooleanClause.Occur.FILTER)
+        .build();
+  }
+
+  /**
+   * Matches the builds and chunks of the jobs. Like any filter that is used repeatedly, the
+   * searcher's query cache keeps the documents it matches as a bit set per segment.
+   */
+  private static Query getJobFilter(Set<String> jobs) {
+    List<BytesRef> terms = new ArrayList<>(jobs.size());
+    for (String job : jobs) {
+      terms.add(new BytesRef(job));
+    }
+    return new TermInSetQuery(JOB, terms);
+  }
+
+  /** Returns the console chunk of the build that matches the query best, or -1. */
+  private static int findBestChunk(IndexSearcher searcher, Document build, Query chunkQuery)
+      throws IOException {
+    Term buildId = new Term(BUILD, build.get(BUILD_ID));
+    Query query =
+        new BooleanQuery.Builder()
+            .add(new TermQuery(buildId), BooleanClause.Occur.FILTER)
+            .add(chunkQuery, BooleanClause.Occur.MUST)
+            .build();
+    ScoreDoc[] chunks = searcher.search(query, 1).scoreDocs;
+    return chunks.length == 0 ? -1 : chunks[0].doc;
+  }
+
+  /** Highlights console chunks from the offsets stored in the index. */
+  private static class ChunkHighlighter extends UnifiedHighlighter {
+
+    ChunkHighlighter(IndexSearcher searcher, Analyzer analyzer) {
+      super(searcher, analyzer);
+      setMaxLength(Integer.MAX_VALUE - 1);
+      setMaxNoHighlightPassages(0);
+      setFormatter(new ChunkFormatter());
+    }
+
+    /** Returns the highlighted fragments of the chunk, or null if nothing matched. */
+    ChunkHighlight highlight(Query query, int chunk) throws IOException {
+      Object[] highlights =
+          highlightFieldsAsObjects(CONSOLE_FIELDS, query, new int[] {chunk}, MAX_CONSOLE_FRAGMENTS)
+              .get(CONSOLE.fieldName);
+      return (ChunkHighlight) highlights[0];
+    }
+  }
+
+  /** Formats every passage as a fragment of its own, and finds the line of the first match. */
+  private static class ChunkFormatter extends PassageFormatter {
+    private final PassageFormatter fragmentFormatter =
+        new DefaultPassageFormatter("<B>", "</B>", "", true);
+
+    @Override
+    public Object format(Passage[] passages, String content) {
+      String[] fragments = new String[passages.length];
+      int firstMatch = -1;
+      for (int i = 0; i < passages.length; i++) {
+        fragments[i] = (String) fragmentFormatter.format(new Passage[] {passages[i]}, content);
+        if (passages[i].getNumMatches() > 0) {
+          int matchStart = passages[i].getMatchStarts()[0];
+          firstMatch = firstMatch < 0 ? matchStart : Math.min(firstMatch, matchStart);
+        }
+      }
+      int matchLine = 0;
+      for (int i = 0; i < firstMatch; i++) {
+        if (content.charAt(i) == '\n') {
+          matchLine++;
+        }
+      }
+      return new ChunkHighlight(fragments, matchLine);
+    }
+  }
+
+  private static class ChunkHighlight {
+    final String[] fragments;
+    /** The line of the first match, counted from the start of the chunk. */
+    final int matchLine;
+
+    ChunkHighlight(String[] fragments, int matchLine) {
+      this.fragments = fragments;
+      this.matchLine = matchLine;
+    }
+  }
+
+  /**
+   * Where a page of hits ended: the version of the reader that was searched, and the document and
+   * score of the last hit, which are only meaningful to that reader. Pages of the newest builds
+   * first end with the start time of the last build instead.
+   */
+  private static final class Cursor {
+    private static final Pattern FORMAT =
+        Pattern.compile("(-?\\d+):(\\d+):(-?\\d+)(?::(-?\\d+))?");
+
+    final long version;
+    final ScoreDoc lastHit;
+
+    Cursor(long version, ScoreDoc lastHit) {
+      this.version = version;
+      this.lastHit = lastHit;
+    }
+
+    String encode() {
+      String cursor = version + ":" + lastHit.doc + ":" + Float.floatToIntBits(lastHit.score);
+      if (lastHit instanceof FieldDoc) {
+        cursor += ":" + ((FieldDoc) lastHit).fields[0];
+      }
+      return Base64.getUrlEncoder()
+          .withoutPadding()
+          .encodeToString(cursor.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Returns the cursor, or null for the first page if there is none, or it is not one of ours or
+     * of a search in the other order.
+     */
+    static Cursor decode(String cursor, boolean newestFirst) {
+      if (cursor == null || cursor.isEmpty()) {
+        return null;
+      }
+      try {
+        String decoded = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+        Matcher matcher = FORMAT.matcher(decoded);
+        if (matcher.matches() && newestFirst == (matcher.group(4) != null)) {
+          int doc = Integer.parseInt(matcher.group(2));
+          float score = Float.intBitsToFloat(Integer.parseInt(matcher.group(3)));
+          ScoreDoc lastHit =
+              newestFirst
+                  ? new FieldDoc(doc, score, new Object[] {Long.parseLong(matcher.group(4))})
+                  : new ScoreDoc(doc, score);
+          return new Cursor(Long.parseLong(matcher.group(1)), lastHit);
+        }
+      } catch (IllegalArgumentException e) {
+        // Not a cursor of this backend, NumberFormatException included
+      }
+      LOGGER.debug("Ignoring invalid search cursor " + cursor);
+      return null;
+    }
   }
 
   @Override
   public void storeBuild(final Run<?, ?> run) throws IOException {
+    storeBuild(run, 0);
+  }
+
+  @Override
+  public void storeBuild(final Run<?, ?> run, int indexedConsoleLines) throws IOException {
+    String buildId = run.getExternalizableId();
+    jobNames.add(run.getParent().getFullName());
+    try (ConsoleLineReader reader =
+        new ConsoleLineReader(run, consoleMaxBytes, consoleTailBytes)) {
+      if (indexedConsoleLines > 0) {
+        // Keeps the chunks indexed while the build was running, and replaces its document along
+        // with adding the rest of its console in one block, so neither is seen without the other
+        Document build = getBuildDocument(run);
+        Iterable<Document> docs = () -> new BuildDocuments(run, build, reader, indexedConsoleLines);
+        dbWriter.updateDocuments(new Term(BUILD_ID, buildId), docs);
+      } else {
+        writeBuild(dbWriter, run, reader);
+      }
+      suggestBuild(run);
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    } finally {
+      changed();
+    }
+  }
+
+  /** Adds the build to the suggestions; a build that is not suggested can still be found. */
+  private void suggestBuild(Run<?, ?> run) {
     try {
-      Document doc = new Document();
-      for (Field field : Field.values()) {
-        org.apache.lucene.document.Field.Store store = field.persist ? STORE : DONT_STORE;
-        Object fieldValue = field.getValue(run);
-        if (fieldValue != null) {
+      suggester.addBuild(run);
+    } catch (IOException | AlreadyClosedException e) {
+      LOGGER.warn("Could not add " + run.getExternalizableId() + " to the suggestions: " + e);
+    }
+  }
 
-          switch (FIELD_TYPE_MAP.get(field)) {
-            case LONG:
-              doc.add(new LongPoint(field.fieldName, ((Number) fieldValue).longValue()));
-              break;
-            case STRING:
-              doc.add(new StringField(field.fieldName, fieldValue.toString(), store));
-              break;
-            case TEXT:
-              doc.add(new TextField(field.fieldName, fieldValue.toString(), store));
-              break;
-            default:
-              throw new IllegalArgumentException(
-                  "Don't know how to handle " + FIELD_TYPE_MAP.get(field));
-          }
+  /** Replaces the build and all of its chunks at once. */
+  private void writeBuild(IndexWriter writer, Run<?, ?> run, ConsoleLineReader reader)
+      throws IOException {
+    Document build = getBuildDocument(run);
+    Iterable<Document> docs = () -> new BuildDocuments(run, build, reader, 0);
+    writer.updateDocuments(new Term(BUILD, run.getExternalizableId()), docs);
+  }
+
+  @Override
+  public void updateBuild(final Run<?, ?> run) throws IOException {
+    Document build = getBuildDocument(run);
+    Document indexed = getIndexedFingerprint(run);
+    if (indexed == null || !indexed.get(LOG_LENGTH).equals(build.get(LOG_LENGTH))) {
+      storeBuild(run);
+    } else if (!indexed.get(FINGERPRINT).equals(build.get(FINGERPRINT))) {
+      // Only the metadata changed, the console chunks stay as they are
+      try {
+        dbWriter.updateDocument(new Term(BUILD_ID, run.getExternalizableId()), build);
+        suggestBuild(run);
+      } finally {
+        changed();
+      }
+    }
+  }
+
+  /** Returns the fingerprint fields of the indexed document of the build, if it is indexed. */
+  private Document getIndexedFingerprint(Run<?, ?> run) throws IOException {
+    IndexSearcher searcher = acquireSearcher();
+    try {
+      ScoreDoc[] hits = searcher.search(getRunQuery(run), 1).scoreDocs;
+      if (hits.length == 0) {
+        return null;
+      }
+      Document doc = searcher.doc(hits[0].doc, FINGERPRINT_FIELDS);
+      return doc.get(FINGERPRINT) == null || doc.get(LOG_LENGTH) == null ? null : doc;
+    } finally {
+      releaseSearcher(searcher);
+    }
+  }
+
+  private Document getBuildDocument(Run<?, ?> run) {
+    Document doc = new Document();
+    for (Field field : Field.values()) {
+      if (field == CONSOLE) {
+        // The console is stored in chunks, see BuildDocuments
+        continue;
+      }
+      org.apache.lucene.document.Field.Store store = field.persist ? STORE : DONT_STORE;
+      Object fieldValue = field.getValue(run);
+      if (fieldValue != null) {
+
+        switch (FIELD_TYPE_MAP.get(field)) {
+          case LONG:
+            doc.add(new LongPoint(field.fieldName, ((Number) fieldValue).longValue()));
+            break;
+          case STRING:
+            doc.add(new StringField(field.fieldName, fieldValue.toString(), store));
+            if (field.numeric) {
+              // Matched exactly as a term, and by ranges as a point
+              doc.add(new LongPoint(field.fieldName, Long.parseLong(fieldValue.toString())));
+            }
+            break;
+          case TEXT:
+            doc.add(new TextField(field.fieldName, fieldValue.toString(), store));
+            break;
+          default:
+            throw new IllegalArgumentException(
+                "Don't know how to handle " + FIELD_TYPE_MAP.get(field));
+        }
+      }
+    }
+
+    for (FreeTextSearchExtension extension : FreeTextSearchExtension.all()) {
+      try {
+        Object fieldValue = extension.getTextResult(run);
+        if (fieldValue != null) {
+          doc.add(
+              new TextField(
+                  extension.getKeyword(),
+                  extension.getTextResult(run),
+                  (extension.isPersist()) ? STORE : DONT_STORE));
         }
+      } catch (Throwable t) {
+        // We don't want to crash the collection of log from other plugin extensions if we happen
+        // to add a plugin that crashes while collecting the logs.
+        LOGGER.warn("CRASH: " + extension.getClass().getName() + ", " + extension.getKeyword() + t);
+      }
+    }
+    doc.add(new StringField(BUILD_ID, run.getExternalizableId(), STORE));
+    doc.add(new StringField(BUILD, run.getExternalizableId(), DONT_STORE));
+    doc.add(new StringField(JOB, run.getParent().getFullName(), DONT_STORE));
+    doc.add(new NumericDocValuesField(NUMBER, run.getNumber()));
+    doc.add(new NumericDocValuesField(TIMESTAMP, run.getStartTimeInMillis()));
+    // Part of the fingerprint, so the urls of a moved job are updated when its builds are saved
+    doc.add(new StoredField(URL, run.getUrl()));
+    doc.add(new StoredField(JOB_URL, run.getParent().getUrl()));
+    doc.add(new StoredField(FINGERPRINT, getFingerprint(doc)));
+    doc.add(new StoredField(LOG_LENGTH, Long.toString(run.getLogText().length())));
+    return doc;
+  }
+
+  /** Hashes the names and values of all fields of the document, doc values included. */
+  static String getFingerprint(Document doc) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+    for (IndexableField field : doc) {
+      digest.update(field.name().getBytes(StandardCharsets.UTF_8));
+      digest.update((byte) 0);
+      if (field.stringValue() != null) {
+        digest.update(field.stringValue().getBytes(StandardCharsets.UTF_8));
+      } else if (field.numericValue() != null) {
+        String value = field.numericValue().toString();
+        digest.update(value.getBytes(StandardCharsets.UTF_8));
+      } else if (field.binaryValue() != null) {
+        BytesRef value = field.binaryValue();
+        digest.update(value.bytes, value.offset, value.length);
       }
+      digest.update((byte) 0);
+    }
+    return Util.toHexString(digest.digest());
+  }
+
+  /**
+   * The documents of a build: optionally its own document, followed by its console in chunks of
+   * at most {@link #CONSOLE_CHUNK_LINES} lines. The chunks are read from the log while the writer
+   * indexes them, so the log is never held in memory as a whole. Lines that have already been
+   * indexed while the build was running are skipped.
+   */
+  private class BuildDocuments implements Iterator<Document> {
+    private final Run<?, ?> run;
+    private final ConsoleLineReader reader;
+    private final int indexedConsoleLines;
+    private Document next;
+    private String pendingLine;
+    private int pendingLineNumber;
 
-      for (FreeTextSearchExtension extension : FreeTextSearchExtension.all()) {
+    BuildDocuments(
+        Run<?, ?> run, Document build, ConsoleLineReader reader, int indexedConsoleLines) {
+      this.run = run;
+      this.next = build;
+      this.reader = reader;
+      this.indexedConsoleLines = indexedConsoleLines;
+    }
+
+    @Override
+    public boolean hasNext() {
+      if (next == null) {
         try {
-          Object fieldValue = extension.getTextResult(run);
-          if (fieldValue != null) {
-            doc.add(
-                new TextField(
-                    extension.getKeyword(),
-                    extension.getTextResult(run),
-                    (extension.isPersist()) ? STORE : DONT_STORE));
+          next = readChunk();
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      }
+      return next != null;
+    }
+
+    @Override
+    public Document next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      Document current = next;
+      next = null;
+      return current;
+    }
+
+    private Document readChunk() throws IOException {
+      StringBuilder chunk = new StringBuilder();
+      int chunkLines = 0;
+      int firstLine = 0;
+      int lastLine = 0;
+      String line = pendingLine;
+      int lineNumber = pendingLineNumber;
+      pendingLine = null;
+      if (line == null) {
+        line = reader.readLine();
+        lineNumber = reader.getLineNumber();
+      }
+      while (line != null) {
+        if (lineNumber > indexedConsoleLines) {
+          // Chunks end at skipped parts of the log, so their lines are always consecutive
+          if (chunkLines >= CONSOLE_CHUNK_LINES || (chunkLines > 0 && lineNumber != lastLine + 1)) {
+            pendingLine = line;
+            pendingLineNumber = lineNumber;
+            break;
+          }
+          if (chunkLines == 0) {
+            firstLine = lineNumber;
           }
-        } catch (Throwable t) {
-          // We don't want to crash the collection of log from other plugin extensions if we happen
-          // to add a plugin that crashes while collecting the logs.
-          LOGGER.warn(
-              "CRASH: " + extension.getClass().getName() + ", " + extension.getKeyword() + t);
+          chunk.append(line).append('\n');
+          chunkLines++;
+          lastLine = lineNumber;
         }
+        line = reader.readLine();
+        lineNumber = reader.getLineNumber();
       }
-      dbWriter.addDocument(doc);
+      return chunkLines == 0 ? null : getChunkDocument(run, firstLine, chunk.toString());
+    }
+  }
+
+  @Override
+  public void storeConsoleChunk(Run<?, ?> run, int firstLine, String text) throws IOException {
+    jobNames.add(run.getParent().getFullName());
+    try {
+      if (firstLine == 1) {
+        // Makes the running build searchable, the document is replaced once it has finished
+        dbWriter.updateDocument(
+            new Term(BUILD_ID, run.getExternalizableId()), getBuildDocument(run));
+      }
+      dbWriter.addDocument(getChunkDocument(run, firstLine, text));
     } finally {
-      dbWriter.commit();
+      changed();
     }
   }
 
-  public Query getRunQuery(Run<?, ?> run) throws ParseException {
-    BooleanQuery.Builder builder = new BooleanQuery.Builder();
-    builder
-        .add(
-            getQueryParser()
-                .parse(
-                    PROJECT_NAME.fieldName
-                        + ":"
-                        + QueryParser.escape(run.getParent().getDisplayName())),
-            BooleanClause.Occur.MUST)
-        .add(
-            getQueryParser().parse(BUILD_NUMBER.fieldName + ":" + run.getNumber()),
-            BooleanClause.Occur.MUST);
-    return builder.build();
+  private static Document getChunkDocument(Run<?, ?> run, int firstLine, String text) {
+    String buildId = run.getExternalizableId();
+    Document doc = new Document();
+    doc.add(new StringField(BUILD, buildId, DONT_STORE));
+    doc.add(new SortedDocValuesField(BUILD, new BytesRef(buildId)));
+    doc.add(new StringField(JOB, run.getParent().getFullName(), DONT_STORE));
+    doc.add(new StoredField(CHUNK_LINE, firstLine));
+    doc.add(new org.apache.lucene.document.Field(CONSOLE.fieldName, text, CONSOLE_FIELD_TYPE));
+    return doc;
+  }
+
+  public Query getRunQuery(Run<?, ?> run) {
+    return new TermQuery(new Term(BUILD_ID, run.getExternalizableId()));
   }
 
   @Override
   public boolean findRunIndex(Run<?, ?> run) {
     try {
       Query query = getRunQuery(run);
-      IndexReader reader = DirectoryReader.open(index);
-      IndexSearcher searcher = new IndexSearcher(reader);
-      TopDocs docs = searcher.search(query, 1);
-      reader.close();
-      return docs.scoreDocs.length > 0;
-    } catch (ParseException e) {
-      LOGGER.warn("findRunIndex: " + e);
+      IndexSearcher searcher = acquireSearcher();
+      try {
+        return searcher.search(query, 1).scoreDocs.length > 0;
+      } finally {
+        releaseSearcher(searcher);
+      }
     } catch (IOException e) {
       LOGGER.warn("findRunIndex: " + e);
     }
     return false;
   }
 
+  @Override
+  public BitSet getIndexedBuildNumbers(String jobName) throws IOException {
+    BitSet numbers = new BitSet();
+    IndexSearcher searcher = acquireSearcher();
+    try {
+      searcher.search(
+          new TermQuery(new Term(JOB, jobName)),
+          new SimpleCollector() {
+            private NumericDocValues values;
+
+            @Override
+            protected void doSetNextReader(LeafReaderContext context) throws IOException {
+              values = DocValues.getNumeric(context.reader(), NUMBER);
+            }
+
+            @Override
+            public void collect(int doc) throws IOException {
+              // Console chunks of the job match as well, but have no build number
+              if (values.advanceExact(doc)) {
+                numbers.set((int) values.longValue());
+              }
+            }
+
+            @Override
+            public ScoreMode scoreMode() {
+              return ScoreMode.COMPLETE_NO_SCORES;
+            }
+          });
+    } finally {
+      releaseSearcher(searcher);
+    }
+    return numbers;
+  }
+
+  @Override
+  protected long getIndexedStartTime(String buildId) throws IOException {
+    long[] startTime = {-1};
+    IndexSearcher searcher = acquireSearcher();
+    try {
+      searcher.search(
+          new TermQuery(new Term(BUILD_ID, buildId)),
+          new SimpleCollector() {
+            private NumericDocValues values;
+
+            @Override
+            protected void doSetNextReader(LeafReaderContext context) throws IOException {
+              values = DocValues.getNumeric(context.reader(), TIMESTAMP);
+            }
+
+            @Override
+            public void collect(int doc) throws IOException {
+              if (values.advanceExact(doc)) {
+                startTime[0] = values.longValue();
+              }
+            }
+
+            @Override
+            public ScoreMode scoreMode() {
+              return ScoreMode.COMPLETE_NO_SCORES;
+            }
+          });
+    } finally {
+      releaseSearcher(searcher);
+    }
+    return startTime[0];
+  }
+
   @Override
   public void removeBuild(Run<?, ?> run) throws IOException {
+    dbWriter.deleteDocuments(new Term(BUILD, run.getExternalizableId()));
     try {
-      dbWriter.deleteDocuments(getRunQuery(run));
-      dbWriter.commit();
-    } catch (ParseException e) {
-      LOGGER.warn("removeBuild: " + e);
+      suggester.removeBuild(run.getExternalizableId());
+    } catch (IOException | AlreadyClosedException e) {
+      LOGGER.warn("Could not remove " + run.getExternalizableId() + " from the suggestions: " + e);
     }
+    changed();
   }
 
   @Override
   public void deleteJob(String jobName) throws IOException {
     try {
-      dbWriter.deleteDocuments(new Term("j", "\"" + jobName + "\""));
-      dbWriter.commit();
+      dbWriter.deleteDocuments(new Term(JOB, jobName));
+      jobNames.remove(jobName);
+      try {
+        suggester.removeJob(jobName);
+      } catch (IOException | AlreadyClosedException e) {
+        LOGGER.warn("Could not remove " + jobName + " from the suggestions: " + e);
+      }
+      changed();
     } catch (IOException e) {
       LOGGER.error("Could not delete job", e);
     }
   }
 
+  @Override
+  protected FullRebuild beginFullRebuild(int workers, boolean resume) throws IOException {
+    return new SegmentRebuild(resume);
+  }
+
+  @Override
+  protected void flush() throws IOException {
+    commit();
+  }
+
+  @Override
+  protected long getConsoleBytes(Run<?, ?> run) {
+    long length = run.getLogText().length();
+    return consoleMaxBytes > 0 ? Math.min(length, consoleMaxBytes) : length;
+  }
+
+  /**
+   * Builds the documents of a full rebuild in private indexes next to the live one, one per
+   * concurrent worker, so workers never contend on the shared writer. The private writers buffer
+   * in memory and only commit at rebuild checkpoints; their segments are merged into the live
+   * index once the rebuild has finished. A resumed rebuild carries on with the private indexes of
+   * the interrupted one.
+   */
+  private class SegmentRebuild implements FullRebuild {
+    private final File directory;
+    private final BlockingQueue<IndexWriter> idleWriters = new LinkedBlockingQueue<>();
+    private final List<IndexWriter> writers = new CopyOnWriteArrayList<>();
+
+    SegmentRebuild(boolean resume) throws IOException {
+      directory = getRebuildPath();
+      if (!resume) {
+        Util.deleteRecursive(directory);
+      }
+      while (getWorkerPath(writers.size()).isDirectory()) {
+        idleWriters.add(openWriter());
+      }
+    }
+
+    private File getWorkerPath(int worker) {
+      return new File(directory, "worker-" + worker);
+    }
+
+    @Override
+    public void storeBuild(Run<?, ?> run) throws IOException {
+      // A worker takes a writer no other worker uses, so there are never more writers than workers
+      IndexWriter writer = idleWriters.poll();
+      if (writer == null) {
+        writer = openWriter();
+      }
+      jobNames.add(run.getParent().getFullName());
+      try (ConsoleLineReader reader =
+          new ConsoleLineReader(run, consoleMaxBytes, consoleTailBytes)) {
+        writeBuild(writer, run, reader);
+      } catch (UncheckedIOException e) {
+        throw e.getCause();
+      } finally {
+        idleWriters.add(writer);
+      }
+      suggestBuild(run);
+    }
+
+    private synchronized IndexWriter openWriter() throws IOException {
+      IndexWriterConfig writerConfig = new IndexWriterConfig(analyzer);
+      writerConfig.setIndexSort(NEWEST_FIRST);
+      writerConfig.setRAMBufferSizeMB(REBUILD_RAM_BUFFER_MB);
+      writerConfig.setCommitOnClose(true);
+      Directory workerIndex = FSDirectory.open(getWorkerPath(writers.size()).toPath());
+      try {
+        IndexWriter writer = new IndexWriter(workerIndex, writerConfig);
+        writers.add(writer);
+        return writer;
+      } catch (IOException e) {
+        workerIndex.close();
+        throw e;
+      }
+    }
+
+    @Override
+    public void deleteJob(String jobName) throws IOException {
+      for (IndexWriter writer : writers) {
+        writer.deleteDocuments(new Term(JOB, jobName));
+      }
+    }
+
+    @Override
+    public void flush() throws IOException {
+      for (IndexWriter writer : writers) {
+        writer.commit();
+      }
+    }
+
+    @Override
+    public void finish(Map<String, Integer> rebuiltJobs) throws IOException {
+      Directory[] workerIndexes = getWorkerIndexes();
+      try {
+        closeWriters();
+        publishLock.writeLock().lock();
+        try {
+          deleteIndexedBuilds(rebuiltJobs);
+          for (Directory workerIndex : workerIndexes) {
+            deleteRebuiltBuilds(workerIndex);
+          }
+          dbWriter.addIndexes(workerIndexes);
+          commit();
+        } finally {
+          publishLock.writeLock().unlock();
+        }
+      } finally {
+        closeIndexes(workerIndexes);
+      }
+      // Only once the builds are published, so a rebuild that failed to publish can be resumed
+      Util.deleteRecursive(directory);
+    }
+
+    @Override
+    public void close() throws IOException {
+      Directory[] workerIndexes = getWorkerIndexes();
+      try {
+        // Commits what has been stored, to be carried on with when the rebuild is resumed
+        closeWriters();
+      } finally {
+        closeIndexes(workerIndexes);
+      }
+    }
+
+    /** Returns the indexes of the writers, taken before any writer is closed. */
+    private Directory[] getWorkerIndexes() {
+      Directory[] workerIndexes = new Directory[writers.size()];
+      for (int i = 0; i < workerIndexes.length; i++) {
+        workerIndexes[i] = writers.get(i).getDirectory();
+      }
+      return workerIndexes;
+    }
+
+    /** Closes every writer, even after another one failed to close, and rethrows the failure. */
+    private void closeWriters() throws IOException {
+      IOException failure = null;
+      for (IndexWriter writer : writers) {
+        try {
+          writer.close();
+        } catch (IOException e) {
+          if (failure == null) {
+            failure = e;
+          } else {
+            failure.addSuppressed(e);
+          }
+        }
+      }
+      if (failure != null) {
+        throw failure;
+      }
+    }
+
+    private void closeIndexes(Directory[] workerIndexes) {
+      for (Directory workerIndex : workerIndexes) {
+        IOUtils.closeQuietly(workerIndex);
+      }
+    }
+
+    /**
+     * Deletes the indexed builds of the rebuilt jobs up to their last rebuilt build, including
+     * builds that no longer exist. The builds are looked up before anything is deleted, as
+     * looking them up may refresh the searcher.
+     */
+    private void deleteIndexedBuilds(Map<String, Integer> rebuiltJobs) throws IOException {
+      Map<String, BitSet> indexedBuilds = new HashMap<>();
+      for (String jobName : rebuiltJobs.keySet()) {
+        indexedBuilds.put(jobName, getIndexedBuildNumbers(jobName));
+      }
+      List<Term> indexed = new ArrayList<>(REBUILD_DELETE_BATCH);
+      for (Map.Entry<String, BitSet> job : indexedBuilds.entrySet()) {
+        BitSet numbers = job.getValue();
+        int lastBuild = rebuiltJobs.get(job.getKey());
+        for (int number = numbers.nextSetBit(0);
+            number >= 0 && number <= lastBuild;
+            number = numbers.nextSetBit(number + 1)) {
+          // The externalizable id of the build
+          indexed.add(new Term(BUILD, job.getKey() + "#" + number));
+          if (indexed.size() == REBUILD_DELETE_BATCH) {
+            dbWriter.deleteDocuments(indexed.toArray(new Term[0]));
+            indexed.clear();
+          }
+        }
+      }
+      dbWriter.deleteDocuments(indexed.toArray(new Term[0]));
+    }
+
+    /** Deletes the builds indexed in place while the rebuild ran, as they are rebuilt already. */
+    private void deleteRebuiltBuilds(Directory workerIndex) throws IOException {
+      try (DirectoryReader reader = DirectoryReader.open(workerIndex)) {
+        Terms terms = MultiTerms.getTerms(reader, BUILD);
+        if (terms == null) {
+          return;
+        }
+        TermsEnum buildIds = terms.iterator();
+        List<Term> rebuilt = new ArrayList<>(REBUILD_DELETE_BATCH);
+        for (BytesRef buildId = buildIds.next(); buildId != null; buildId = buildIds.next()) {
+          rebuilt.add(new Term(BUILD, BytesRef.deepCopyOf(buildId)));
+          if (rebuilt.size() == REBUILD_DELETE_BATCH) {
+            dbWriter.deleteDocuments(rebuilt.toArray(new Term[0]));
+            rebuilt.clear();
+          }
+        }
+        dbWriter.deleteDocuments(rebuilt.toArray(new Term[0]));
+      }
+    }
+  }
+
   @Override
   public void cleanAllJob(ManagerProgress progress) {
     Progress currentProgress = progress.beginCleanJob();
     try {
-      IndexReader reader = DirectoryReader.open(index);
-      currentProgress.setCurrent(reader.numDocs());
+      IndexSearcher searcher = acquireSearcher();
+      try {
+        currentProgress.setCurrent(searcher.getIndexReader().numDocs());
+      } finally {
+        releaseSearcher(searcher);
+      }
       dbWriter.deleteAll();
-      dbWriter.commit();
-      reader.close();
+      jobNames.clear();
+      suggester.clear();
+      commit();
       progress.setSuccessfullyCompleted();
     } catch (IOException e) {
       progress.completedWithErrors(e);
@@ -414,7 +1525,8 @@ public class LuceneSearchBackend extends SearchBackend<Document> {
         continue;
       }
       escapedQuery.append(field);
-      escapedQuery.append(QueryParser.escape(text));
+      // A range of a field, such as n:[1 TO 10], is left for the parser
+      escapedQuery.append(termMatcher.group("range") != null ? text : QueryParser.escape(text));
       escapedQuery.append(" ");
     }
     return escapedQuery.toString().strip();
@@ -1,19 +1,22 @@
 package org.jenkinsci.plugins.lucene.search.databackend;
 
 import hudson.model.Job;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import org.apache.http.util.TextUtils;
 
 public class ManagerProgress extends Progress {
 
-  private List<Progress> history = new LinkedList<>();
+  // Jobs of a rebuild complete concurrently while the history is being shown
+  private List<Progress> history = new CopyOnWriteArrayList<>();
 
-  private Progress currentProject;
+  private volatile Progress currentProject;
+
+  private volatile Progress failedJob;
 
   private long processedItems = 0;
 
-  public void jobComplete() {
+  public synchronized void jobComplete() {
     if (currentProject != null) {
       currentProject.setSuccessfullyCompleted();
       currentProject.setFinished();
@@ -22,6 +25,25 @@ public class ManagerProgress extends Progress {
     }
   }
 
+  /** Completes a job of a rebuild. Jobs of a rebuild may complete in any order. */
+  public synchronized void jobComplete(Progress jobProgress) {
+    if (jobProgress.getState() == ProgressState.COMPLETE_WITH_ERROR) {
+      if (failedJob == null) {
+        failedJob = jobProgress;
+      }
+    } else {
+      jobProgress.setSuccessfullyCompleted();
+    }
+    jobProgress.setFinished();
+    setProcessedItems(getProcessedItems() + jobProgress.getMax());
+    this.setElapsedTime(System.currentTimeMillis() - startTime);
+  }
+
+  /** The first job of a rebuild that completed with errors, if any. */
+  public Progress getFailedJob() {
+    return failedJob;
+  }
+
   @Override
   public void assertNoErrors() throws Exception {
     super.assertNoErrors();
@@ -42,7 +64,7 @@ public class ManagerProgress extends Progress {
   @Override
   public void completedWithErrors(Exception e) {
     super.completedWithErrors(e);
-    if (currentProject != null) {
+    if (currentProject != null && !currentProject.isFinished()) {
       currentProject.completedWithErrors(e);
       currentProject.setFinished();
       this.getHistory().add(currentProject);
@@ -72,11 +94,11 @@ public class ManagerProgress extends Progress {
     return history;
   }
 
-  public long getProcessedItems() {
+  public synchronized long getProcessedItems() {
     return processedItems;
   }
 
-  public void setProcessedItems(long processedItems) {
+  public synchronized void setProcessedItems(long processedItems) {
     this.processedItems = processedItems;
   }
 }
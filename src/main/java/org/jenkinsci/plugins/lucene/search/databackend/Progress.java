@@ -13,7 +13,7 @@ public class Progress {
   protected long startTime;
   private long elapsedTime;
 
-  private ProgressState state = ProgressState.PROCESSING;
+  private volatile ProgressState state = ProgressState.PROCESSING;
   private transient Exception reason;
   private String reasonMessage = "";
   private int max;
@@ -0,0 +1,117 @@
+package org.jenkinsci.plugins.lucene.search.databackend;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import java.util.Locale;
+import java.util.function.Supplier;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.document.LongPoint;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.queryparser.classic.MultiFieldQueryParser;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.MultiTermQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.jenkinsci.plugins.lucene.search.Field;
+
+/**
+ * Parses the queries users type. Parsed queries do not depend on the index, so they are kept for
+ * the queries that are asked again, such as the pages of a search or a query typed a second time.
+ * Parsers are not thread safe and are reused per thread. Whenever the default fields change, for
+ * instance because search extensions were installed, parsers and parsed queries are replaced.
+ */
+class QueryPlanner {
+  private static final int MAX_PARSED_QUERIES = 1000;
+  private static final Locale LOCALE = Locale.ENGLISH;
+
+  private final Analyzer analyzer;
+  /** Returns the same array for as long as the default fields stay the same. */
+  private final Supplier<String[]> defaultFields;
+
+  private final ThreadLocal<Parser> parsers = new ThreadLocal<>();
+  private final Cache<String, Parsed> parsedQueries =
+      Caffeine.newBuilder().maximumSize(MAX_PARSED_QUERIES).build();
+
+  QueryPlanner(Analyzer analyzer, Supplier<String[]> defaultFields) {
+    this.analyzer = analyzer;
+    this.defaultFields = defaultFields;
+  }
+
+  /** Parses the query as typed by the user, escaping what the query syntax would misread. */
+  Query parse(String q) throws ParseException {
+    String[] fields = defaultFields.get();
+    Parsed parsed = parsedQueries.getIfPresent(q);
+    if (parsed == null || parsed.fields != fields) {
+      parsed = new Parsed(fields, getParser(fields).parse(LuceneSearchBackend.escapeQuery(q)));
+      parsedQueries.put(q, parsed);
+    }
+    return parsed.query;
+  }
+
+  private QueryParser getParser(String[] fields) {
+    Parser parser = parsers.get();
+    if (parser == null || parser.fields != fields) {
+      parser = new Parser(fields, analyzer);
+      parsers.set(parser);
+    }
+    return parser;
+  }
+
+  private static final class Parsed {
+    final String[] fields;
+    final Query query;
+
+    Parsed(String[] fields, Query query) {
+      this.fields = fields;
+      this.query = query;
+    }
+  }
+
+  private static final class Parser extends MultiFieldQueryParser {
+    final String[] fields;
+
+    Parser(String[] fields, Analyzer analyzer) {
+      super(fields, analyzer);
+      this.fields = fields;
+      setDefaultOperator(QueryParser.Operator.AND);
+      setLocale(LOCALE);
+      setAllowLeadingWildcard(true);
+      setMultiTermRewriteMethod(MultiTermQuery.SCORING_BOOLEAN_REWRITE);
+    }
+
+    @Override
+    protected Query getRangeQuery(
+        String field, String part1, String part2, boolean startInclusive, boolean endInclusive)
+        throws ParseException {
+      // Fields of search extensions are not in Field
+      Field index = field == null ? null : Field.getIndex(field);
+      if (index != null && index.numeric) {
+        long min = getWithDefault(part1, Long.MIN_VALUE);
+        long max = getWithDefault(part2, Long.MAX_VALUE);
+        if (!startInclusive && min != Long.MAX_VALUE) {
+          min++;
+        }
+        if (!endInclusive && max != Long.MIN_VALUE) {
+          max--;
+        }
+        return LongPoint.newRangeQuery(field, min, max);
+      } else if (field != null) {
+        return new TermQuery(new Term(field));
+      }
+      return super.getRangeQuery(null, part1, part2, startInclusive, endInclusive);
+    }
+
+    /** Parses the bound of a range, which is open when it is missing or not a number. */
+    private static long getWithDefault(String number, long defaultNumber) {
+      if (number != null) {
+        try {
+          return Long.parseLong(number.trim());
+        } catch (NumberFormatException e) {
+          // An open bound
+        }
+      }
+      return defaultNumber;
+    }
+  }
+}
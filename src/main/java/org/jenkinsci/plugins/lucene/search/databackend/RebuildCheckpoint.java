@@ -0,0 +1,186 @@
+package org.jenkinsci.plugins.lucene.search.databackend;
+
+import hudson.XmlFile;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.apache.log4j.Logger;
+
+/**
+ * The progress of a database rebuild, saved next to the index while the rebuild runs, so that a
+ * rebuild stopped by an abort or a restart of Jenkins can be resumed without indexing the jobs it
+ * completed again. A job only counts as completed once its builds are durable in the index.
+ */
+public class RebuildCheckpoint {
+  private static final Logger LOGGER = Logger.getLogger(RebuildCheckpoint.class);
+  private static final long SAVE_INTERVAL_MILLIS = 10000;
+
+  private transient XmlFile file;
+  private transient AtomicBoolean saving;
+  private transient volatile long lastSaved;
+  private transient volatile Runnable onChange;
+
+  private final int workers;
+  private final boolean overwrite;
+  private final boolean newestFirst;
+  private final Set<String> jobNames;
+  /** The full names of the completed jobs, with the number of their last build at the time. */
+  private final Map<String, Integer> completedJobs;
+
+  private RebuildCheckpoint(
+      int workers,
+      boolean overwrite,
+      boolean newestFirst,
+      Set<String> jobNames,
+      Map<String, Integer> completedJobs) {
+    this.workers = workers;
+    this.overwrite = overwrite;
+    this.newestFirst = newestFirst;
+    this.jobNames = jobNames;
+    this.completedJobs = completedJobs;
+  }
+
+  /** Starts the checkpoints of a new rebuild, replacing those of an earlier one. */
+  static RebuildCheckpoint start(
+      File file, int workers, Set<String> jobNames, boolean overwrite, boolean newestFirst)
+      throws IOException {
+    RebuildCheckpoint checkpoint =
+        new RebuildCheckpoint(
+            workers, overwrite, newestFirst, new HashSet<>(jobNames), new ConcurrentHashMap<>());
+    checkpoint.attach(new XmlFile(file));
+    checkpoint.save();
+    return checkpoint;
+  }
+
+  /** Returns the checkpoints of an interrupted rebuild, or null if there is none. */
+  static RebuildCheckpoint load(File file) {
+    XmlFile xmlFile = new XmlFile(file);
+    if (!xmlFile.exists()) {
+      return null;
+    }
+    try {
+      RebuildCheckpoint saved = (RebuildCheckpoint) xmlFile.read();
+      if (saved.workers < 1) {
+        LOGGER.warn("Ignoring rebuild checkpoint " + file + " with " + saved.workers + " workers");
+        return null;
+      }
+      RebuildCheckpoint checkpoint =
+          new RebuildCheckpoint(
+              saved.workers,
+              saved.overwrite,
+              saved.newestFirst,
+              saved.jobNames,
+              new ConcurrentHashMap<>(saved.completedJobs));
+      checkpoint.attach(xmlFile);
+      return checkpoint;
+    } catch (IOException | RuntimeException e) {
+      LOGGER.warn("Ignoring unreadable rebuild checkpoint " + file, e);
+      return null;
+    }
+  }
+
+  private void attach(XmlFile xmlFile) {
+    file = xmlFile;
+    saving = new AtomicBoolean();
+    lastSaved = System.currentTimeMillis();
+  }
+
+  /** Calls {@code onChange} whenever the checkpoints are saved or removed. */
+  void setOnChange(Runnable onChange) {
+    this.onChange = onChange;
+  }
+
+  private void changed() {
+    Runnable listener = onChange;
+    if (listener != null) {
+      listener.run();
+    }
+  }
+
+  public int getWorkers() {
+    return workers;
+  }
+
+  public boolean isOverwrite() {
+    return overwrite;
+  }
+
+  /** Whether builds are rebuilt from the newest to the oldest across jobs, or job by job. */
+  public boolean isNewestFirst() {
+    return newestFirst;
+  }
+
+  public Set<String> getJobNames() {
+    return Collections.unmodifiableSet(jobNames);
+  }
+
+  public int getCompletedJobCount() {
+    return completedJobs.size();
+  }
+
+  /**
+   * Returns the number of the last build of the job when it was completed by this rebuild, or null
+   * if it has not been completed yet.
+   */
+  Integer getCompletedLastBuild(String jobFullName) {
+    return completedJobs.get(jobFullName);
+  }
+
+  /**
+   * Records that all builds of the job up to {@code lastBuild} have been stored. The job is only
+   * saved as completed once {@code flush} has made the stored builds durable.
+   */
+  void jobCompleted(String jobFullName, int lastBuild) {
+    completedJobs.put(jobFullName, lastBuild);
+  }
+
+  /**
+   * Saves the checkpoints if they have not been saved for a while, first making the builds of the
+   * completed jobs durable with {@code flush}. Returns at once if another thread is saving.
+   */
+  void saveIfDue(Flush flush) {
+    if (System.currentTimeMillis() - lastSaved < SAVE_INTERVAL_MILLIS
+        || !saving.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      // Jobs completed while flushing are only saved with the next checkpoint
+      Map<String, Integer> durableJobs = new HashMap<>(completedJobs);
+      flush.run();
+      write(durableJobs);
+    } catch (IOException e) {
+      LOGGER.warn("Could not save rebuild checkpoint " + file, e);
+    } finally {
+      saving.set(false);
+    }
+  }
+
+  /** Saves the checkpoints; the builds of all completed jobs must be durable already. */
+  void save() throws IOException {
+    write(new HashMap<>(completedJobs));
+  }
+
+  private void write(Map<String, Integer> durableJobs) throws IOException {
+    file.write(new RebuildCheckpoint(workers, overwrite, newestFirst, jobNames, durableJobs));
+    lastSaved = System.currentTimeMillis();
+    changed();
+  }
+
+  /** Removes the checkpoints once the rebuild has completed. */
+  void delete() {
+    if (!file.getFile().delete() && file.exists()) {
+      LOGGER.warn("Could not delete rebuild checkpoint " + file);
+    }
+    changed();
+  }
+
+  interface Flush {
+    void run() throws IOException;
+  }
+}
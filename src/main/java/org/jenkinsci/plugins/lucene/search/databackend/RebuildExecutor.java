@@ -0,0 +1,87 @@
+package org.jenkinsci.plugins.lucene.search.databackend;
+
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.log4j.Logger;
+
+/**
+ * Runs the builds of a database rebuild on one long-lived pool of daemon threads, shared by all
+ * jobs, so builds of many small jobs are indexed side by side instead of one job after another.
+ * The pool is resized to the number of workers of the rebuild that uses it; rebuilds run one at a
+ * time. Only a few builds per worker may be in flight, so a rebuild never holds on to more than
+ * that many builds at once.
+ */
+class RebuildExecutor {
+  private static final Logger LOGGER = Logger.getLogger(RebuildExecutor.class);
+
+  private static final ThreadPoolExecutor POOL =
+      new ThreadPoolExecutor(
+          1,
+          1,
+          60,
+          TimeUnit.SECONDS,
+          new LinkedBlockingQueue<>(),
+          new NamingThreadFactory(new DaemonThreadFactory(), "Lucene search rebuild"));
+
+  static {
+    POOL.allowCoreThreadTimeOut(true);
+  }
+
+  private static final int IN_FLIGHT_PER_WORKER = 4;
+
+  private final AtomicInteger pending = new AtomicInteger();
+  private final Object lock = new Object();
+  private final Semaphore inFlight;
+
+  RebuildExecutor(int workers) {
+    if (workers < 1) {
+      throw new IllegalArgumentException("A rebuild needs at least one worker: " + workers);
+    }
+    inFlight = new Semaphore(workers * IN_FLIGHT_PER_WORKER);
+    synchronized (POOL) {
+      // The core size may never exceed the maximum size, so the order depends on the direction
+      if (workers > POOL.getMaximumPoolSize()) {
+        POOL.setMaximumPoolSize(workers);
+        POOL.setCorePoolSize(workers);
+      } else {
+        POOL.setCorePoolSize(workers);
+        POOL.setMaximumPoolSize(workers);
+      }
+    }
+  }
+
+  /** Submits the task, waiting while as many tasks as allowed are in flight. */
+  void submit(Runnable task) throws InterruptedException {
+    inFlight.acquire();
+    pending.incrementAndGet();
+    POOL.execute(
+        () -> {
+          try {
+            task.run();
+          } catch (RuntimeException e) {
+            LOGGER.error("Rebuild task failed", e);
+          } finally {
+            inFlight.release();
+            if (pending.decrementAndGet() == 0) {
+              synchronized (lock) {
+                lock.notifyAll();
+              }
+            }
+          }
+        });
+  }
+
+  /** Waits until every submitted task has run. */
+  void awaitCompletion() throws InterruptedException {
+    synchronized (lock) {
+      while (pending.get() > 0) {
+        lock.wait();
+      }
+    }
+  }
+}
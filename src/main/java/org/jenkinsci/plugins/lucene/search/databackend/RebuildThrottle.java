@@ -0,0 +1,149 @@
+package org.jenkinsci.plugins.lucene.search.databackend;
+
+import hudson.model.Computer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import jenkins.model.Jenkins;
+import org.apache.log4j.Logger;
+
+/**
+ * Paces the builds of a database rebuild, so that a rebuild can run while Jenkins is in use. Logs
+ * are read at no more than the configured bytes per second, and builds are indexed at no more
+ * than the configured builds per second. When adaptive, the rebuild also backs off while
+ * executors are nearly all busy, the build queue is long, or searches are slow: the share of time
+ * the workers spend indexing is halved every second the load stays high, and doubled again every
+ * second it is back to normal.
+ */
+public class RebuildThrottle {
+  private static final Logger LOGGER = Logger.getLogger(RebuildThrottle.class);
+
+  private static final long CHECK_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+  private static final long SLEEP_SLICE_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+  private static final double MIN_SHARE = 1.0 / 32;
+  private static final double BUSY_EXECUTORS = 0.9;
+  /** Searches slower than this on average mean the rebuild is slowing down the index. */
+  private static final long SLOW_SEARCH_MILLIS = 1000;
+  /** The weight of the latest search in the moving average of the search latency. */
+  private static final double SEARCH_LATENCY_WEIGHT = 0.2;
+
+  private final Rate bytes = new Rate();
+  private final Rate builds = new Rate();
+  private final AtomicLong nextCheck = new AtomicLong(System.nanoTime());
+  private volatile boolean adaptive = true;
+  private volatile double share = 1;
+  // The moving average of the search latency in milliseconds, as the bits of a double
+  private final AtomicLong searchLatency = new AtomicLong(Double.doubleToLongBits(0));
+
+  /**
+   * Sets the budgets of the rebuild; a budget of 0 or less is unlimited. The budgets also apply to
+   * a rebuild that is running.
+   */
+  public void setLimits(long bytesPerSecond, long buildsPerSecond, boolean adaptive) {
+    bytes.setPerSecond(bytesPerSecond);
+    builds.setPerSecond(buildsPerSecond);
+    this.adaptive = adaptive;
+    if (!adaptive) {
+      share = 1;
+    }
+  }
+
+  /** The share of time the rebuild workers may currently spend indexing, between 0 and 1. */
+  public double getShare() {
+    return share;
+  }
+
+  void recordSearchLatency(long millis) {
+    searchLatency.getAndUpdate(
+        bits -> {
+          double average = Double.longBitsToDouble(bits);
+          return Double.doubleToLongBits(average + SEARCH_LATENCY_WEIGHT * (millis - average));
+        });
+  }
+
+  /** Waits until a build that reads {@code consoleBytes} of its log may be indexed. */
+  void beforeBuild(long consoleBytes, BooleanSupplier stopped) {
+    checkLoad();
+    sleep(Math.max(bytes.reserve(consoleBytes), builds.reserve(1)), stopped);
+  }
+
+  /** Rests after indexing a build took {@code elapsedNanos}, if the rebuild is backing off. */
+  void afterBuild(long elapsedNanos, BooleanSupplier stopped) {
+    double current = share;
+    if (current < 1) {
+      sleep((long) (elapsedNanos * (1 / current - 1)), stopped);
+    }
+  }
+
+  private void checkLoad() {
+    long now = System.nanoTime();
+    long check = nextCheck.get();
+    if (now - check < 0 || !nextCheck.compareAndSet(check, now + CHECK_INTERVAL_NANOS)) {
+      return;
+    }
+    if (!adaptive) {
+      return;
+    }
+    double current = share;
+    double next = isLoaded() ? Math.max(current / 2, MIN_SHARE) : Math.min(current * 2, 1);
+    if (next != current) {
+      LOGGER.debug("Rebuild indexes " + Math.round(next * 100) + "% of the time");
+      share = next;
+    }
+  }
+
+  private boolean isLoaded() {
+    if (Double.longBitsToDouble(searchLatency.get()) > SLOW_SEARCH_MILLIS) {
+      return true;
+    }
+    Jenkins jenkins = Jenkins.get();
+    int executors = 0;
+    int busy = 0;
+    for (Computer computer : jenkins.getComputers()) {
+      if (computer.isOnline()) {
+        executors += computer.countExecutors();
+        busy += computer.countBusy();
+      }
+    }
+    return executors > 0 && busy >= executors * BUSY_EXECUTORS
+        || jenkins.getQueue().countBuildableItems() > Math.max(executors, 1);
+  }
+
+  /** Sleeps in short slices, so that an aborted rebuild does not wait for its budget. */
+  private static void sleep(long nanos, BooleanSupplier stopped) {
+    long deadline = System.nanoTime() + nanos;
+    try {
+      for (long left = nanos; left > 0 && !stopped.getAsBoolean(); ) {
+        TimeUnit.NANOSECONDS.sleep(Math.min(left, SLEEP_SLICE_NANOS));
+        left = deadline - System.nanoTime();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * A budget per second. Work is let through at once, and the work after it waits until the
+   * budget has paid for it. Budget left unused is kept for at most a second.
+   */
+  private static final class Rate {
+    private long perSecond;
+    private long nextFree = System.nanoTime();
+
+    synchronized void setPerSecond(long perSecond) {
+      this.perSecond = perSecond;
+    }
+
+    /** Reserves {@code amount} of the budget, and returns how many nanoseconds to wait first. */
+    synchronized long reserve(long amount) {
+      if (perSecond <= 0) {
+        return 0;
+      }
+      long now = System.nanoTime();
+      nextFree = Math.max(nextFree, now - TimeUnit.SECONDS.toNanos(1));
+      long wait = Math.max(nextFree - now, 0);
+      nextFree += (long) (amount * 1e9 / perSecond);
+      return wait;
+    }
+  }
+}
@@ -1,13 +1,27 @@
 package org.jenkinsci.plugins.lucene.search.databackend;
 
+import hudson.ExtensionListListener;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
 import hudson.model.Job;
 import hudson.model.Run;
+import hudson.model.RunMap;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntPredicate;
 import jenkins.model.Jenkins;
+import jenkins.model.lazy.LazyBuildMixIn;
 import org.apache.log4j.Logger;
 import org.jenkinsci.plugins.lucene.search.Field;
 import org.jenkinsci.plugins.lucene.search.FreeTextSearchExtension;
@@ -16,29 +30,76 @@ import org.jenkinsci.plugins.lucene.search.FreeTextSearchItemImplementation;
 public abstract class SearchBackend<T> {
 
   private static final Logger LOGGER = Logger.getLogger(SearchBackend.class);
-  private boolean stop = false;
+
+  /** The console is indexed in chunks of this many lines. */
+  static final int CONSOLE_CHUNK_LINES = 100;
+
+  /**
+   * The cancellation token of the rebuild that is running, if any. Rebuilds share the pool of
+   * {@link RebuildExecutor} and the files of the index they rebuild, so only one runs at a time,
+   * and each has a token of its own, so a rebuild that starts never revives an aborted one.
+   */
+  private static final AtomicReference<AtomicBoolean> RUNNING_REBUILD = new AtomicReference<>();
+
+  private static volatile String[] defaultSearchableFields;
+
+  /**
+   * Stores the builds of a full rebuild. The stored builds may only become visible once the
+   * rebuild has finished, and the indexed builds they replace stay searchable until then.
+   */
+  protected interface FullRebuild {
+    /** Stores the build. Called concurrently by the rebuild workers. */
+    void storeBuild(Run<?, ?> run) throws IOException;
+
+    /** Drops what has been stored of the job so far, before its builds are stored again. */
+    void deleteJob(String jobName) throws IOException;
+
+    /** Makes the stored builds durable, so that an interrupted rebuild can be resumed. */
+    void flush() throws IOException;
+
+    /**
+     * Publishes the stored builds in place of the indexed builds of the rebuilt jobs, at once.
+     * Called after every build has been stored. {@code rebuiltJobs} maps the full names of the
+     * rebuilt jobs to the highest build number they had used when they were rebuilt; newer builds
+     * have been indexed in place and are kept.
+     */
+    void finish(Map<String, Integer> rebuiltJobs) throws IOException;
+
+    /**
+     * Makes the stored builds durable without publishing them, so that the rebuild can be
+     * resumed. Called instead of {@link #finish(Map)} when the rebuild did not complete.
+     */
+    void close() throws IOException;
+  }
 
   @SuppressWarnings("rawtypes")
   private class RebuildBuildWorker implements RunWithArgument<Run> {
 
     private final Progress progress;
-    private final boolean overwrite;
+    // Stores the builds of a full rebuild, or null to store them in place
+    private final FullRebuild fullRebuild;
+    private final RebuildThrottle throttle;
+    private final AtomicBoolean stop;
 
-    private RebuildBuildWorker(Progress progress, boolean overwrite) {
+    private RebuildBuildWorker(
+        Progress progress, FullRebuild fullRebuild, RebuildThrottle throttle, AtomicBoolean stop) {
       this.progress = progress;
-      this.overwrite = overwrite;
+      this.fullRebuild = fullRebuild;
+      this.throttle = throttle;
+      this.stop = stop;
     }
 
     @Override
     public void run(Run run) {
       try {
-        if (overwrite) {
-          storeBuild(run);
+        throttle.beforeBuild(getConsoleBytes(run), stop::get);
+        long started = System.nanoTime();
+        if (fullRebuild != null) {
+          fullRebuild.storeBuild(run);
         } else {
-          if (!findRunIndex(run)) {
-            storeBuild(run);
-          }
+          storeBuild(run);
         }
+        throttle.afterBuild(System.nanoTime() - started, stop::get);
       } catch (Exception e) {
         progress.completedWithErrors(e);
         LOGGER.warn("Error rebuilding build", e);
@@ -52,10 +113,51 @@ public abstract class SearchBackend<T> {
 
   public abstract void storeBuild(final Run<?, ?> run) throws IOException;
 
+  /**
+   * Stores the build, except for the first {@code indexedConsoleLines} lines of its console, which
+   * have already been stored with {@link #storeConsoleChunk(Run, int, String)}.
+   */
+  public abstract void storeBuild(final Run<?, ?> run, int indexedConsoleLines)
+      throws IOException;
+
+  /**
+   * Stores the build unless it is stored already and has not changed since. If only its metadata
+   * changed, its console is not indexed again.
+   */
+  public abstract void updateBuild(final Run<?, ?> run) throws IOException;
+
+  /** Stores a chunk of the console of a running build, starting at line {@code firstLine}. */
+  public abstract void storeConsoleChunk(Run<?, ?> run, int firstLine, String text)
+      throws IOException;
+
   public abstract boolean findRunIndex(Run<?, ?> run);
 
-  public abstract List<FreeTextSearchItemImplementation> getHits(
-      final String query, boolean searchNext);
+  /** Returns the numbers of the builds of the job with this full name that are in the index. */
+  public abstract BitSet getIndexedBuildNumbers(String jobName) throws IOException;
+
+  /**
+   * Returns a page of hits of the query: the first page if {@code cursor} is null, otherwise the
+   * page after the one that returned the cursor. Hits are listed by relevance, or from the newest
+   * build to the oldest if {@code newestFirst}. If {@code visibleJobs} is not null, only builds of
+   * the jobs with these full names are searched. Callers pass the same set again for as long as it
+   * has not changed, so backends may cache what they derive from it.
+   */
+  public abstract HitPage getHits(
+      final String query, String cursor, boolean newestFirst, Set<String> visibleJobs);
+
+  /**
+   * Returns up to {@code count} builds to suggest while the user is typing the query, within a
+   * budget much smaller than that of a search. If {@code visibleJobs} is not null, only builds of
+   * the jobs with these full names are suggested.
+   */
+  public abstract List<FreeTextSearchItemImplementation> getSuggestions(
+      final String query, int count, Set<String> visibleJobs);
+
+  /**
+   * Returns the generation of the index that searches currently see. It changes whenever changes
+   * to the index become visible, so hits may be cached for as long as it stays the same.
+   */
+  public abstract long getIndexGeneration() throws IOException;
 
   public abstract SearchBackend<?> reconfigure(Map<String, Object> config);
 
@@ -63,28 +165,385 @@ public abstract class SearchBackend<T> {
 
   public abstract void deleteJob(String jobName) throws IOException;
 
-  @SuppressWarnings("rawtypes")
-  public void rebuildJob(Progress progress, Job<?, ?> job, int maxWorkers, boolean overwrite)
-      throws IOException {
-    BurstExecutor<Run> burstExecutor =
-        BurstExecutor.create(new RebuildBuildWorker(progress, overwrite), maxWorkers).andStart();
-    if (overwrite) {
-      deleteJob(job.getFullName());
+  /**
+   * Starts a full rebuild that uses up to {@code workers} concurrent workers, or resumes the full
+   * rebuild that was interrupted. By default the builds are stored in place, one by one.
+   */
+  protected FullRebuild beginFullRebuild(int workers, boolean resume) throws IOException {
+    return new FullRebuild() {
+      @Override
+      public void storeBuild(Run<?, ?> run) throws IOException {
+        SearchBackend.this.storeBuild(run);
+      }
+
+      @Override
+      public void deleteJob(String jobName) {}
+
+      @Override
+      public void flush() throws IOException {
+        SearchBackend.this.flush();
+      }
+
+      @Override
+      public void finish(Map<String, Integer> rebuiltJobs) {}
+
+      @Override
+      public void close() throws IOException {
+        SearchBackend.this.flush();
+      }
+    };
+  }
+
+  /** Makes the stored builds durable. */
+  protected void flush() throws IOException {}
+
+  /**
+   * Returns the start time of the build with this externalizable id as it is indexed, or -1 if it
+   * is not indexed. Lets builds be ordered the way the index sorts them without loading them.
+   */
+  protected long getIndexedStartTime(String buildId) throws IOException {
+    return -1;
+  }
+
+  /** Returns how many bytes of the console of the build are read to store it. */
+  protected long getConsoleBytes(Run<?, ?> run) {
+    return run.getLogText().length();
+  }
+
+  /** A running database rebuild. */
+  private class Rebuild {
+    private final ManagerProgress progress;
+    private final RebuildExecutor executor;
+    private final RebuildCheckpoint checkpoint;
+    private final RebuildThrottle throttle;
+    // Set once the rebuild is aborted
+    private final AtomicBoolean stop;
+    // Null unless the rebuild overwrites the builds that are indexed already
+    private final FullRebuild fullRebuild;
+    // The jobs the full rebuild replaces, with the highest build number they had used by then
+    private final Map<String, Integer> rebuiltJobs = new ConcurrentHashMap<>();
+
+    private Rebuild(
+        ManagerProgress progress,
+        RebuildExecutor executor,
+        RebuildCheckpoint checkpoint,
+        RebuildThrottle throttle,
+        AtomicBoolean stop,
+        FullRebuild fullRebuild) {
+      this.progress = progress;
+      this.executor = executor;
+      this.checkpoint = checkpoint;
+      this.throttle = throttle;
+      this.stop = stop;
+      this.fullRebuild = fullRebuild;
+    }
+
+    /**
+     * Prepares rebuilding the job, or returns null if it was completed before the rebuild was
+     * interrupted. Nothing is changed before the job rebuild begins. A full rebuild stores all
+     * builds of the job again, and only replaces the indexed ones once it has finished.
+     */
+    private JobRebuild prepareJob(Job<?, ?> job) throws IOException {
+      String jobName = job.getFullName();
+      Run<?, ?> last = job.getLastBuild();
+      int lastBuild = last == null ? 0 : last.getNumber();
+      if (fullRebuild != null) {
+        // Builds started from now on are indexed in place, and kept when the rebuild finishes
+        rebuiltJobs.put(jobName, job.getNextBuildNumber() - 1);
+      }
+      Integer completedLastBuild = checkpoint.getCompletedLastBuild(jobName);
+      if (completedLastBuild != null && completedLastBuild == lastBuild) {
+        // Completed before the rebuild was interrupted
+        progress.incCurrent();
+        return null;
+      }
+      if (fullRebuild == null) {
+        return new JobRebuild(job, lastBuild, getIndexedBuildNumbers(jobName), last == null);
+      }
+      if (completedLastBuild != null) {
+        // A job completed before the rebuild was interrupted only misses the builds added since
+        BitSet completed = new BitSet();
+        completed.set(0, completedLastBuild + 1);
+        return new JobRebuild(job, lastBuild, completed, false);
+      }
+      return new JobRebuild(job, lastBuild, null, true);
     }
-    for (Run<?, ?> run : job.getBuilds()) {
-      progress.setMax(progress.getMax() + 1);
-      burstExecutor.add(run);
+
+    /** Queues the builds of the job on the rebuild executor, newest first. */
+    private void rebuildJob(Job<?, ?> job) throws IOException, InterruptedException {
+      JobRebuild jobRebuild = prepareJob(job);
+      if (jobRebuild == null) {
+        return;
+      }
+      jobRebuild.begin();
+      try {
+        for (BuildNumbers numbers = jobRebuild.getBuildNumbers(); numbers.hasNext(); ) {
+          if (stop.get()) {
+            break;
+          }
+          jobRebuild.submit(numbers.next());
+        }
+      } finally {
+        jobRebuild.allSubmitted();
+      }
     }
-    try {
-      burstExecutor.waitForCompletion();
-    } catch (InterruptedException e) {
-      e.printStackTrace();
-      LOGGER.warn("Why was I interrupted?", e);
+
+    /**
+     * Queues the builds of all jobs on the rebuild executor from the newest to the oldest, so the
+     * recent builds people search for most are indexed first. Jobs list their builds newest first,
+     * so merging these lists on start time orders the builds across jobs, the way the index sorts
+     * them. Only the build heading each list is looked at, and a job only begins once its newest
+     * build is queued. Builds are not loaded to be ordered: their start times are taken from the
+     * index, and a build that is not indexed takes the start time of the newer build before it.
+     */
+    @SuppressWarnings("rawtypes")
+    private void rebuildNewestFirst(List<Job> jobs) throws IOException, InterruptedException {
+      PriorityQueue<PendingBuilds> pending =
+          new PriorityQueue<>(
+              Math.max(jobs.size(), 1),
+              Comparator.comparingLong((PendingBuilds builds) -> builds.headTime).reversed());
+      try {
+        for (Job job : jobs) {
+          if (stop.get()) {
+            break;
+          }
+          JobRebuild jobRebuild = prepareJob(job);
+          if (jobRebuild == null) {
+            continue;
+          }
+          PendingBuilds builds = new PendingBuilds(jobRebuild);
+          if (builds.advance()) {
+            pending.add(builds);
+          } else {
+            // Without builds to queue, the job is complete as soon as it begins
+            jobRebuild.begin();
+            jobRebuild.allSubmitted();
+          }
+        }
+        while (!stop.get() && !pending.isEmpty()) {
+          PendingBuilds next = pending.poll();
+          boolean more = false;
+          try {
+            if (!next.jobRebuild.isBegun()) {
+              next.jobRebuild.begin();
+            }
+            next.jobRebuild.submit(next.head);
+            more = next.advance();
+          } finally {
+            if (more) {
+              pending.add(next);
+            } else if (next.jobRebuild.isBegun()) {
+              next.jobRebuild.allSubmitted();
+            }
+          }
+        }
+      } finally {
+        // Jobs that have begun still complete, without the builds that were not queued; the jobs
+        // that have not begun are left as they are
+        for (PendingBuilds builds : pending) {
+          if (builds.jobRebuild.isBegun()) {
+            builds.jobRebuild.allSubmitted();
+          }
+        }
+      }
+    }
+
+    /** The builds of a job that are not queued yet, headed by the newest of them. */
+    private final class PendingBuilds {
+      private final JobRebuild jobRebuild;
+      private final BuildNumbers numbers;
+      private int head;
+      // Never increases, so the builds of the job stay in order even where start times are unknown
+      private long headTime = Long.MAX_VALUE;
+
+      private PendingBuilds(JobRebuild jobRebuild) {
+        this.jobRebuild = jobRebuild;
+        this.numbers = jobRebuild.getBuildNumbers();
+      }
+
+      /** Moves on to the next older build, if there is one. */
+      private boolean advance() throws IOException {
+        if (!numbers.hasNext()) {
+          return false;
+        }
+        head = numbers.next();
+        long startTime = getIndexedStartTime(jobRebuild.job.getFullName() + "#" + head);
+        if (startTime >= 0) {
+          headTime = Math.min(headTime, startTime);
+        }
+        return true;
+      }
+    }
+
+    /**
+     * A job being rebuilt. Its builds are queued by number, and only loaded once a worker is ready
+     * to index them. The job is complete once its last build has been indexed, which may be after
+     * builds of jobs queued later.
+     */
+    private final class JobRebuild {
+      private final Job<?, ?> job;
+      private final int lastBuild;
+      // The numbers of the builds of the job that are indexed already, or null to overwrite them
+      private final BitSet indexed;
+      // Whether what is stored of the job is dropped when it begins
+      private final boolean dropStored;
+      // One for every queued build that is not indexed yet, plus one until all builds are queued
+      private final AtomicInteger remaining = new AtomicInteger(1);
+      // Set once the job has begun, before any of its builds is queued
+      private Progress jobProgress;
+      private RebuildBuildWorker worker;
+
+      private JobRebuild(Job<?, ?> job, int lastBuild, BitSet indexed, boolean dropStored) {
+        this.job = job;
+        this.lastBuild = lastBuild;
+        this.indexed = indexed;
+        this.dropStored = dropStored;
+      }
+
+      /** Lists the job in the progress, and drops what is stored of it if it is stored again. */
+      private void begin() throws IOException {
+        if (dropStored) {
+          if (fullRebuild != null) {
+            fullRebuild.deleteJob(job.getFullName());
+          } else {
+            deleteJob(job.getFullName());
+          }
+        }
+        jobProgress = progress.beginJob(job);
+        worker = new RebuildBuildWorker(jobProgress, fullRebuild, throttle, stop);
+      }
+
+      private boolean isBegun() {
+        return jobProgress != null;
+      }
+
+      /** Lists the builds to rebuild, newest first. */
+      private BuildNumbers getBuildNumbers() {
+        return new BuildNumbers(job, lastBuild, indexed);
+      }
+
+      /** Queues the build, waiting while the rebuild has as many builds in flight as it allows. */
+      private void submit(int number) throws InterruptedException {
+        jobProgress.setMax(jobProgress.getMax() + 1);
+        remaining.incrementAndGet();
+        try {
+          executor.submit(
+              () -> {
+                try {
+                  // A build deleted since it was listed is skipped
+                  Run<?, ?> run = stop.get() ? null : job.getBuildByNumber(number);
+                  if (run != null) {
+                    worker.run(run);
+                  }
+                } finally {
+                  release();
+                }
+              });
+        } catch (InterruptedException e) {
+          release();
+          throw e;
+        }
+      }
+
+      private void allSubmitted() {
+        release();
+      }
+
+      private void release() {
+        if (remaining.decrementAndGet() > 0) {
+          return;
+        }
+        progress.jobComplete(jobProgress);
+        // Builds of the job have been skipped once the rebuild is aborted
+        if (!stop.get() && jobProgress.getState() == Progress.ProgressState.COMPLETE) {
+          checkpoint.jobCompleted(job.getFullName(), lastBuild);
+          checkpoint.saveIfDue(Rebuild.this::flush);
+        }
+      }
+    }
+
+    private void flush() throws IOException {
+      if (fullRebuild != null) {
+        fullRebuild.flush();
+      } else {
+        SearchBackend.this.flush();
+      }
+    }
+  }
+
+  /**
+   * The numbers of the builds of a job, newest first, leaving out the builds that are indexed
+   * already. Where the job loads its builds lazily, the numbers are listed without loading them.
+   */
+  private static final class BuildNumbers {
+    private final IntPredicate exists;
+    private final BitSet skipped;
+    private final int first;
+    private int next;
+
+    private BuildNumbers(Job<?, ?> job, int lastBuild, BitSet skipped) {
+      Run<?, ?> firstBuild = lastBuild > 0 ? job.getFirstBuild() : null;
+      this.first = firstBuild != null ? firstBuild.getNumber() : 1;
+      this.exists = getBuildExists(job);
+      this.skipped = skipped;
+      this.next = lastBuild;
+      skipMissing();
+    }
+
+    private static IntPredicate getBuildExists(Job<?, ?> job) {
+      if (job instanceof LazyBuildMixIn.LazyLoadingJob) {
+        RunMap<?> runs =
+            ((LazyBuildMixIn.LazyLoadingJob<?, ?>) job).getLazyBuildMixIn()._getRuns();
+        return runs::runExists;
+      }
+      return number -> job.getBuildByNumber(number) != null;
+    }
+
+    private boolean hasNext() {
+      return next >= first;
+    }
+
+    private int next() {
+      int number = next--;
+      skipMissing();
+      return number;
+    }
+
+    private void skipMissing() {
+      while (next >= first && (skipped != null && skipped.get(next) || !exists.test(next))) {
+        next--;
+      }
     }
   }
 
-  // Caching this method might be dangerous
+  /**
+   * Returns the fields searched by the terms of a query without a field. The same array is
+   * returned until search extensions are added or removed, and must not be modified.
+   */
   protected String[] getAllDefaultSearchableFields() {
+    String[] fields = defaultSearchableFields;
+    if (fields == null) {
+      fields = findDefaultSearchableFields();
+      defaultSearchableFields = fields;
+    }
+    return fields;
+  }
+
+  /** Forgets the default searchable fields whenever the search extensions change. */
+  @Initializer(after = InitMilestone.EXTENSIONS_AUGMENTED)
+  public static void watchSearchExtensions() {
+    defaultSearchableFields = null;
+    FreeTextSearchExtension.all()
+        .addListener(
+            new ExtensionListListener() {
+              @Override
+              public void onChange() {
+                defaultSearchableFields = null;
+              }
+            });
+  }
+
+  private static String[] findDefaultSearchableFields() {
     List<String> fieldNames = new LinkedList<String>();
     for (Field field : Field.values()) {
       if (field.defaultSearchable) {
@@ -99,65 +558,101 @@ public abstract class SearchBackend<T> {
     return fieldNames.toArray(new String[fieldNames.size()]);
   }
 
+  /** Aborts the running rebuild, if any. It has stopped once its progress is finished. */
   public void abort() {
-    stop = true;
+    AtomicBoolean stop = RUNNING_REBUILD.get();
+    if (stop != null) {
+      stop.set(true);
+    }
   }
 
-  public void start() {
-    stop = false;
+  /** Whether a rebuild is running, including one that has been aborted but not stopped yet. */
+  public boolean isRebuilding() {
+    return RUNNING_REBUILD.get() != null;
   }
 
+  /**
+   * Rebuilds the jobs of the checkpoints, skipping the jobs they list as completed already, at the
+   * pace of the throttle. The checkpoints are removed once the rebuild has completed without
+   * errors. Fails without changing anything while another rebuild is running.
+   */
   @SuppressWarnings("rawtypes")
   public void rebuildDatabase(
-      ManagerProgress progress, int maxWorkers, Set<String> jobNames, boolean overwrite) {
-    start();
-    List<Job> allItems = Jenkins.getInstance().getAllItems(Job.class);
+      ManagerProgress progress, RebuildCheckpoint checkpoint, RebuildThrottle throttle) {
+    AtomicBoolean stop = new AtomicBoolean();
+    if (!RUNNING_REBUILD.compareAndSet(null, stop)) {
+      progress.completedWithErrors(new Exception("Another rebuild is still running"));
+      progress.setFinished();
+      return;
+    }
     try {
-      if (!jobNames.isEmpty()) {
-        progress.setMax(jobNames.size());
-        for (Job job : allItems) {
-          if (stop) {
-            break;
-          }
-          if (jobNames.contains(job.getName())) {
-            rebuildSingleJob(progress, job, maxWorkers, overwrite);
-            jobNames.remove(job.getName());
-          }
-          if (jobNames.isEmpty()) {
-            progress.setSuccessfullyCompleted();
-            return;
+      rebuildDatabase(progress, checkpoint, throttle, stop);
+    } finally {
+      // Cleared before the progress finishes, so a rebuild may start as soon as it has
+      RUNNING_REBUILD.compareAndSet(stop, null);
+      progress.setFinished();
+    }
+  }
+
+  @SuppressWarnings("rawtypes")
+  private void rebuildDatabase(
+      ManagerProgress progress,
+      RebuildCheckpoint checkpoint,
+      RebuildThrottle throttle,
+      AtomicBoolean stop) {
+    Set<String> jobNames = checkpoint.getJobNames();
+    List<Job> jobs = new ArrayList<>();
+    for (Job job : Jenkins.get().getAllItems(Job.class)) {
+      if (jobNames.isEmpty() || jobNames.contains(job.getName())) {
+        jobs.add(job);
+      }
+    }
+    RebuildExecutor executor = new RebuildExecutor(checkpoint.getWorkers());
+    try {
+      boolean resume = checkpoint.getCompletedJobCount() > 0;
+      FullRebuild fullRebuild =
+          checkpoint.isOverwrite() ? beginFullRebuild(checkpoint.getWorkers(), resume) : null;
+      Rebuild rebuild = new Rebuild(progress, executor, checkpoint, throttle, stop, fullRebuild);
+      progress.setMax(jobs.size());
+      boolean queued = false;
+      try {
+        if (checkpoint.isNewestFirst()) {
+          rebuild.rebuildNewestFirst(jobs);
+        } else {
+          for (Job job : jobs) {
+            if (stop.get()) {
+              break;
+            }
+            rebuild.rebuildJob(job);
           }
         }
-      } else {
-        progress.setMax(allItems.size());
-        for (Job job : allItems) {
-          if (stop) {
-            break;
+        queued = true;
+      } finally {
+        executor.awaitCompletion();
+        if (fullRebuild != null) {
+          if (queued && !stop.get() && progress.getFailedJob() == null) {
+            fullRebuild.finish(rebuild.rebuiltJobs);
+          } else {
+            // The indexed builds stay searchable until the rebuild is resumed and finishes
+            fullRebuild.close();
           }
-          rebuildSingleJob(progress, job, maxWorkers, overwrite);
         }
+        checkpoint.save();
+      }
+      Progress failedJob = progress.getFailedJob();
+      if (failedJob != null) {
+        progress.completedWithErrors(
+            new Exception(
+                "Rebuilding " + failedJob.getName() + " failed: " + failedJob.getReasonMessage()));
+      } else if (stop.get()) {
+        progress.completedWithErrors(new Exception("Rebuild aborted"));
+      } else {
+        checkpoint.delete();
         progress.setSuccessfullyCompleted();
       }
     } catch (Exception e) {
       progress.completedWithErrors(e);
       LOGGER.error("Rebuild database failed", e);
-    } finally {
-      progress.setFinished();
-    }
-  }
-
-  private void rebuildSingleJob(
-      ManagerProgress progress, Job job, int maxWorkers, boolean overwrite) throws Exception {
-    Progress currentJobProgress = progress.beginJob(job);
-    try {
-      if (job.getBuilds().isEmpty()) {
-        deleteJob(job.getFullName());
-      } else {
-        rebuildJob(currentJobProgress, job, maxWorkers, overwrite);
-        progress.assertNoErrors();
-      }
-    } finally {
-      progress.jobComplete();
     }
   }
 
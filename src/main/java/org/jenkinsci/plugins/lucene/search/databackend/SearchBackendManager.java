@@ -1,14 +1,26 @@
 package org.jenkinsci.plugins.lucene.search.databackend;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.google.common.annotations.VisibleForTesting;
 import hudson.Extension;
-import hudson.model.Item;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.init.Terminator;
+import hudson.model.Job;
 import hudson.model.Run;
 import hudson.search.SearchResult;
 import hudson.search.SuggestedItem;
+import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import javax.inject.Inject;
 import jenkins.model.Jenkins;
+import jenkins.util.Timer;
 import org.apache.log4j.Logger;
 import org.jenkinsci.plugins.lucene.search.FreeTextSearchItemImplementation;
 import org.jenkinsci.plugins.lucene.search.SearchResultImpl;
@@ -17,46 +29,218 @@ import org.jenkinsci.plugins.lucene.search.config.SearchBackendConfiguration;
 @Extension
 public class SearchBackendManager {
   private static final Logger LOG = Logger.getLogger(SearchBackendManager.class);
+  private static final int VISIBLE_JOBS_CACHE_SIZE = 1000;
+  private static final long VISIBLE_JOBS_EXPIRY_MINUTES = 1;
+  private static final int MAX_SUGGESTIONS = 20;
+  /** How many hits the cached pages may hold in total. */
+  private static final long CACHED_HITS_MAX_WEIGHT = 10000;
+  private static final long CACHED_HITS_EXPIRY_MINUTES = 10;
 
   private transient SearchBackend<?> instance;
 
+  private transient IndexingQueue indexingQueue;
+
+  /** Saved builds waiting for their coalescing window to pass. */
+  private final transient Set<String> savedBuilds = ConcurrentHashMap.newKeySet();
+
+  private final transient LiveConsoleIndexer liveConsoleIndexer =
+      new LiveConsoleIndexer(
+          (run, firstLine, text) -> getBackend().storeConsoleChunk(run, firstLine, text));
+
+  private final transient RebuildThrottle rebuildThrottle = new RebuildThrottle();
+
+  /**
+   * The number of jobs the interrupted rebuild has completed, empty if there is none, or null
+   * until the checkpoints are read again after they changed. Guarded by
+   * {@link #resumableJobsLock}.
+   */
+  private transient OptionalInt resumableJobs;
+
+  private final transient Object resumableJobsLock = new Object();
+
+  /** The full names of the jobs each user may read, by user id. */
+  private final transient Cache<String, Set<String>> visibleJobs =
+      Caffeine.newBuilder()
+          .maximumSize(VISIBLE_JOBS_CACHE_SIZE)
+          .expireAfterWrite(VISIBLE_JOBS_EXPIRY_MINUTES, TimeUnit.MINUTES)
+          .build();
+
+  /**
+   * Pages of hits by query, cursor and index generation, so they are no longer used once changes
+   * to the index have become visible, and by the jobs the user may read.
+   */
+  private final transient Cache<HitKey, HitPage> cachedHits =
+      Caffeine.newBuilder()
+          .maximumWeight(CACHED_HITS_MAX_WEIGHT)
+          .weigher((HitKey key, HitPage page) -> 1 + page.getHits().size())
+          .expireAfterWrite(CACHED_HITS_EXPIRY_MINUTES, TimeUnit.MINUTES)
+          .recordStats()
+          .build();
+
   @Inject private transient SearchBackendConfiguration backendConfig;
 
   private synchronized SearchBackend<?> getBackend() {
     if (instance == null) {
       instance = LuceneSearchBackend.create(backendConfig.getConfig());
+      // A backend that recreates an outdated index drops the checkpoints of its rebuild
+      checkpointChanged();
     }
     return instance;
   }
 
-  public synchronized void reconfigure(final Map<String, Object> config) throws IOException {
-    if (instance != null) {
-      instance.close();
-      instance = instance.reconfigure(config);
-    } else {
-      instance = LuceneSearchBackend.create(backendConfig.getConfig());
+  public void reconfigure(final Map<String, Object> config) throws IOException {
+    synchronized (this) {
+      if (instance != null) {
+        instance.close();
+        instance = instance.reconfigure(config);
+      } else {
+        instance = LuceneSearchBackend.create(backendConfig.getConfig());
+      }
+    }
+    checkpointChanged();
+    IndexingQueue outdatedQueue = null;
+    synchronized (this) {
+      if (indexingQueue != null
+          && (indexingQueue.getWorkers() != backendConfig.getIndexingWorkers()
+              || indexingQueue.getCapacity() != backendConfig.getIndexingQueueSize())) {
+        outdatedQueue = indexingQueue;
+        indexingQueue = null;
+      }
     }
+    if (outdatedQueue != null) {
+      // Closing waits for running workers, which need the backend, so it must not hold the lock
+      outdatedQueue.close();
+      getIndexingQueue().drainPending();
+    }
+  }
+
+  private synchronized IndexingQueue getIndexingQueue() {
+    if (indexingQueue == null) {
+      File lucenePath = (File) backendConfig.getConfig().get("lucenePath");
+      indexingQueue =
+          new IndexingQueue(
+              this::reindexBuild,
+              new File(lucenePath.getParentFile(), lucenePath.getName() + "-pending.txt"),
+              backendConfig.getIndexingWorkers(),
+              backendConfig.getIndexingQueueSize());
+    }
+    return indexingQueue;
+  }
+
+  private File getRebuildCheckpointFile() {
+    File lucenePath = (File) backendConfig.getConfig().get("lucenePath");
+    return new File(lucenePath.getParentFile(), lucenePath.getName() + "-rebuild.xml");
   }
 
-  public List<FreeTextSearchItemImplementation> getHits(String query, boolean searchNext) {
-    List<FreeTextSearchItemImplementation> hits = getBackend().getHits(query, searchNext);
-    if (backendConfig.isUseSecurity()) {
-      Jenkins jenkins = Jenkins.getInstance();
-      Iterator<FreeTextSearchItemImplementation> iter = hits.iterator();
-      while (iter.hasNext()) {
-        FreeTextSearchItemImplementation searchItem = iter.next();
-        Item item = jenkins.getItemByFullName(searchItem.getProjectName());
-        if (item == null) {
-          iter.remove();
-        }
+  /** Picks up builds that were still waiting to be indexed when Jenkins was stopped. */
+  @Initializer(after = InitMilestone.JOB_CONFIG_ADAPTED)
+  public void indexPendingBuilds() {
+    getIndexingQueue().drainPending();
+  }
+
+  /**
+   * Flushes pending index changes to disk when Jenkins shuts down. Builds still waiting to be
+   * indexed are remembered and indexed on the next start.
+   */
+  @Terminator
+  public void close() {
+    IndexingQueue queue;
+    synchronized (this) {
+      queue = indexingQueue;
+      indexingQueue = null;
+    }
+    if (queue != null) {
+      queue.close();
+    }
+    liveConsoleIndexer.close();
+    synchronized (this) {
+      if (instance != null) {
+        instance.close();
+        instance = null;
       }
     }
-    return hits;
+  }
+
+  /**
+   * Returns the first page of hits of the query if {@code cursor} is null, otherwise the page after
+   * the one that returned the cursor, listing the newest builds first if {@code newestFirst}. Once
+   * a user pages on, the page after is fetched into the cache in the background, as they are likely
+   * to ask for it next.
+   */
+  public HitPage getHits(String query, String cursor, boolean newestFirst) {
+    // The jobs of the user, as the background thread runs as the system
+    Set<String> jobs = getVisibleJobs();
+    HitPage page = getCachedHits(query, cursor, newestFirst, jobs);
+    String nextCursor = page.getNextCursor();
+    if (cursor != null && nextCursor != null) {
+      Timer.get().submit(() -> getCachedHits(query, nextCursor, newestFirst, jobs));
+    }
+    return page;
+  }
+
+  private HitPage getCachedHits(
+      String query, String cursor, boolean newestFirst, Set<String> jobs) {
+    SearchBackend<?> backend = getBackend();
+    String normalizedQuery = query.trim().replaceAll("\\s+", " ");
+    long generation;
+    try {
+      generation = backend.getIndexGeneration();
+    } catch (IOException e) {
+      LOG.warn("Could not read the index generation, searching without the cache: " + e);
+      return search(backend, normalizedQuery, cursor, newestFirst, jobs);
+    }
+    return cachedHits.get(
+        new HitKey(normalizedQuery, cursor, newestFirst, generation, jobs),
+        key -> search(backend, normalizedQuery, cursor, newestFirst, jobs));
+  }
+
+  private HitPage search(
+      SearchBackend<?> backend,
+      String query,
+      String cursor,
+      boolean newestFirst,
+      Set<String> jobs) {
+    long started = System.currentTimeMillis();
+    HitPage page = backend.getHits(query, cursor, newestFirst, jobs);
+    rebuildThrottle.recordSearchLatency(System.currentTimeMillis() - started);
+    return page;
+  }
+
+  /** The hit, miss and eviction counts of the cached pages of hits. */
+  public CacheStats getHitCacheStats() {
+    return cachedHits.stats();
+  }
+
+  /**
+   * Returns the full names of the jobs the current user may read, or null if searches are not
+   * restricted. The names are cached per user until jobs change, or for a minute at most, as
+   * changes of permissions are not announced.
+   */
+  private Set<String> getVisibleJobs() {
+    Jenkins jenkins = Jenkins.get();
+    if (!backendConfig.isUseSecurity() || jenkins.hasPermission(Jenkins.ADMINISTER)) {
+      return null;
+    }
+    return visibleJobs.get(
+        Jenkins.getAuthentication2().getName(),
+        user -> {
+          Set<String> jobs = new HashSet<>();
+          for (Job<?, ?> job : jenkins.allItems(Job.class)) {
+            jobs.add(job.getFullName());
+          }
+          return Collections.unmodifiableSet(jobs);
+        });
+  }
+
+  /** Forgets which jobs users may read, for instance because a job has been created or moved. */
+  public void invalidateVisibleJobs() {
+    visibleJobs.invalidateAll();
   }
 
   public SearchResult getSuggestedItems(String query) {
     SearchResultImpl result = new SearchResultImpl();
-    for (FreeTextSearchItemImplementation item : getHits(query, false)) {
+    for (FreeTextSearchItemImplementation item :
+        getBackend().getSuggestions(query, MAX_SUGGESTIONS, getVisibleJobs())) {
       result.add(new SuggestedItem(item));
     }
     return result;
@@ -71,7 +255,13 @@ public class SearchBackendManager {
     getBackend().abort();
   }
 
+  /** Whether a rebuild is running, including one that has been aborted but not stopped yet. */
+  public boolean isRebuilding() {
+    return getBackend().isRebuilding();
+  }
+
   public void removeBuild(Run<?, ?> run) throws IOException {
+    liveConsoleIndexer.discard(run);
     getBackend().removeBuild(run);
   }
 
@@ -79,14 +269,165 @@ public class SearchBackendManager {
     getBackend().deleteJob(jobName);
   }
 
+  /**
+   * Moves the indexed builds of a job that has been renamed or moved to its new full name. The
+   * builds are removed under the old name and queued to be indexed again under the new one.
+   */
+  public void renameJob(String oldFullName, Job<?, ?> job) throws IOException {
+    SearchBackend<?> backend = getBackend();
+    BitSet indexed = backend.getIndexedBuildNumbers(oldFullName);
+    backend.deleteJob(oldFullName);
+    IndexingQueue queue = getIndexingQueue();
+    for (int number = indexed.nextSetBit(0); number >= 0; number = indexed.nextSetBit(number + 1)) {
+      queue.add(job.getFullName() + "#" + number);
+    }
+  }
+
   public void storeBuild(Run<?, ?> run) throws IOException {
     getBackend().storeBuild(run);
   }
 
+  /** Queues the build to be (re-)indexed in the background. */
+  public void queueBuild(Run<?, ?> run) {
+    getIndexingQueue().add(run);
+  }
+
+  /** Wraps the log of a running build so its console is indexed while it is being written. */
+  public OutputStream tapConsole(Run<?, ?> run, OutputStream logger) {
+    if (!backendConfig.isLiveConsoleIndexing()) {
+      return logger;
+    }
+    long maxBytes = backendConfig.getConsoleMaxBytes();
+    long headBytes =
+        maxBytes > 0
+            ? maxBytes - Math.min(Math.max(backendConfig.getConsoleTailBytes(), 0), maxBytes)
+            : Long.MAX_VALUE;
+    return liveConsoleIndexer.tap(run, logger, headBytes);
+  }
+
+  /**
+   * Queues a saved build to be re-indexed once the coalescing window has passed, so the many saves
+   * of a build in a short time are indexed only once.
+   */
+  public void queueSavedBuild(Run<?, ?> run) {
+    String id = run.getExternalizableId();
+    if (!savedBuilds.add(id)) {
+      return;
+    }
+    Timer.get()
+        .schedule(
+            () -> {
+              savedBuilds.remove(id);
+              queueBuild(run);
+            },
+            backendConfig.getSaveCoalescingWindow(),
+            TimeUnit.MILLISECONDS);
+  }
+
+  @VisibleForTesting
+  public long getIndexGeneration() throws IOException {
+    return getBackend().getIndexGeneration();
+  }
+
+  @VisibleForTesting
+  public boolean waitForQueuedBuilds(long timeoutMillis) throws InterruptedException {
+    return getIndexingQueue().awaitIdle(timeoutMillis);
+  }
+
+  private void reindexBuild(Run<?, ?> run) {
+    try {
+      int indexedConsoleLines = liveConsoleIndexer.finish(run);
+      if (indexedConsoleLines > 0) {
+        // Only the rest of the console is missing from the chunks indexed while it was running
+        getBackend().storeBuild(run, indexedConsoleLines);
+      } else {
+        getBackend().updateBuild(run);
+      }
+    } catch (IOException e) {
+      LOG.error("Indexing " + run.getExternalizableId() + " failed: ", e);
+    }
+  }
+
   public void rebuildDatabase(
-      ManagerProgress progress, int maxWorkers, Set<String> jobs, boolean overwrite) {
+      ManagerProgress progress,
+      int maxWorkers,
+      Set<String> jobs,
+      boolean overwrite,
+      boolean newestFirst) {
+    try {
+      if (getBackend().isRebuilding()) {
+        // Starting the checkpoints would replace those of the running rebuild
+        throw new IllegalStateException("Another rebuild is still running");
+      }
+      RebuildCheckpoint checkpoint =
+          RebuildCheckpoint.start(
+              getRebuildCheckpointFile(), maxWorkers, jobs, overwrite, newestFirst);
+      checkpoint.setOnChange(this::checkpointChanged);
+      checkpointChanged();
+      updateRebuildThrottle();
+      getBackend().rebuildDatabase(progress, checkpoint, rebuildThrottle);
+    } catch (Exception e) {
+      progress.completedWithErrors(e);
+      LOG.error("Failed rebuilding search database", e);
+    } finally {
+      progress.setFinished();
+    }
+  }
+
+  /** Applies the configured rebuild budgets, also to a rebuild that is running. */
+  public void updateRebuildThrottle() {
+    rebuildThrottle.setLimits(
+        backendConfig.getRebuildBytesPerSecond(),
+        backendConfig.getRebuildBuildsPerSecond(),
+        backendConfig.isAdaptiveRebuildThrottle());
+  }
+
+  /** The share of time a rebuild currently spends indexing, between 0 and 1. */
+  public double getRebuildShare() {
+    return rebuildThrottle.getShare();
+  }
+
+  /**
+   * Returns the checkpoints of a rebuild that was aborted or interrupted by a restart, or null if
+   * the last rebuild completed.
+   */
+  public RebuildCheckpoint getInterruptedRebuild() {
+    RebuildCheckpoint checkpoint = RebuildCheckpoint.load(getRebuildCheckpointFile());
+    if (checkpoint != null) {
+      checkpoint.setOnChange(this::checkpointChanged);
+    }
+    return checkpoint;
+  }
+
+  /**
+   * Returns how many jobs the interrupted rebuild has completed, or an empty result if the last
+   * rebuild completed. The checkpoints are only read again once they have changed, so this may
+   * be called on every status poll.
+   */
+  public OptionalInt getResumableJobCount() {
+    synchronized (resumableJobsLock) {
+      if (resumableJobs == null) {
+        RebuildCheckpoint checkpoint = RebuildCheckpoint.load(getRebuildCheckpointFile());
+        resumableJobs =
+            checkpoint == null
+                ? OptionalInt.empty()
+                : OptionalInt.of(checkpoint.getCompletedJobCount());
+      }
+      return resumableJobs;
+    }
+  }
+
+  private void checkpointChanged() {
+    synchronized (resumableJobsLock) {
+      resumableJobs = null;
+    }
+  }
+
+  /** Resumes an interrupted rebuild with the options it was started with. */
+  public void resumeRebuild(ManagerProgress progress, RebuildCheckpoint checkpoint) {
     try {
-      getBackend().rebuildDatabase(progress, maxWorkers, jobs, overwrite);
+      updateRebuildThrottle();
+      getBackend().rebuildDatabase(progress, checkpoint, rebuildThrottle);
     } catch (Exception e) {
       progress.completedWithErrors(e);
       LOG.error("Failed rebuilding search database", e);
@@ -94,4 +435,48 @@ public class SearchBackendManager {
       progress.setFinished();
     }
   }
+
+  /**
+   * Identifies a page of hits. The jobs the user may read are compared by identity, as the sets of
+   * visible jobs are cached per user; null means the search is not restricted.
+   */
+  private static final class HitKey {
+    private final String query;
+    private final String cursor;
+    private final boolean newestFirst;
+    private final long generation;
+    private final Set<String> visibleJobs;
+
+    HitKey(
+        String query,
+        String cursor,
+        boolean newestFirst,
+        long generation,
+        Set<String> visibleJobs) {
+      this.query = query;
+      this.cursor = cursor;
+      this.newestFirst = newestFirst;
+      this.generation = generation;
+      this.visibleJobs = visibleJobs;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof HitKey)) {
+        return false;
+      }
+      HitKey other = (HitKey) o;
+      return query.equals(other.query)
+          && Objects.equals(cursor, other.cursor)
+          && newestFirst == other.newestFirst
+          && generation == other.generation
+          && visibleJobs == other.visibleJobs;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(
+          query, cursor, newestFirst, generation, System.identityHashCode(visibleJobs));
+    }
+  }
 }
@@ -1,5 +1,6 @@
 package org.jenkinsci.plugins.lucene.search.management;
 
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
 import hudson.Extension;
 import hudson.model.Job;
 import hudson.model.ManagementLink;
@@ -11,7 +12,9 @@ import javax.servlet.ServletException;
 import jenkins.model.Jenkins;
 import net.sf.json.JSONSerializer;
 import org.apache.log4j.Logger;
+import org.jenkinsci.plugins.lucene.search.config.SearchBackendConfiguration;
 import org.jenkinsci.plugins.lucene.search.databackend.ManagerProgress;
+import org.jenkinsci.plugins.lucene.search.databackend.RebuildCheckpoint;
 import org.jenkinsci.plugins.lucene.search.databackend.SearchBackend;
 import org.jenkinsci.plugins.lucene.search.databackend.SearchBackendManager;
 import org.kohsuke.stapler.QueryParameter;
@@ -25,7 +28,10 @@ public class LuceneManager extends ManagementLink {
 
   private static final Logger LOGGER = Logger.getLogger(SearchBackend.class);
 
+  private static final long MEGABYTE = 1024 * 1024;
+
   @Inject private transient SearchBackendManager backendManager;
+  @Inject private transient SearchBackendConfiguration backendConfig;
   private ManagerProgress progress;
   private int workers = 0;
 
@@ -45,22 +51,29 @@ public class LuceneManager extends ManagementLink {
   }
 
   @JavaScriptMethod
-  public JSReturnCollection rebuildDatabase(int workers, String jobNames, String overwrite) {
+  public JSReturnCollection rebuildDatabase(
+      int workers, String jobNames, String overwrite, String order) {
     Jenkins.get().getACL().checkPermission(getRequiredPermission());
     JSReturnCollection statement = verifyNotInProgress();
-    this.workers = workers;
-    if (this.workers <= 0) {
+    if (workers <= 0) {
       statement.message = "Invalid number of workers";
       statement.code = 1;
       return statement;
     }
 
     if (statement.code == 0) {
+      // Only a rebuild that starts replaces the workers reported for the running one
+      this.workers = workers;
       progress = new ManagerProgress();
       Set<String> jobs = new HashSet(Arrays.asList(jobNames.split("\\s+")));
       jobs.removeAll(Collections.singleton(""));
       if (checkJobNames(jobs)) {
-        backendManager.rebuildDatabase(progress, this.workers, jobs, overwrite.equals("overwrite"));
+        backendManager.rebuildDatabase(
+            progress,
+            this.workers,
+            jobs,
+            overwrite.equals("overwrite"),
+            order.equals("newest"));
         statement.message = "Work completed successfully";
         statement.code = 0;
       } else {
@@ -71,6 +84,62 @@ public class LuceneManager extends ManagementLink {
     return statement;
   }
 
+  @JavaScriptMethod
+  public JSReturnCollection resumeRebuild() {
+    Jenkins.get().getACL().checkPermission(getRequiredPermission());
+    JSReturnCollection statement = verifyNotInProgress();
+    if (statement.code == 0) {
+      RebuildCheckpoint checkpoint = backendManager.getInterruptedRebuild();
+      if (checkpoint == null) {
+        statement.message = "There is no interrupted rebuild to resume";
+        statement.code = 1;
+        return statement;
+      }
+      progress = new ManagerProgress();
+      workers = checkpoint.getWorkers();
+      backendManager.resumeRebuild(progress, checkpoint);
+      statement.message = "Work completed successfully";
+    }
+    return statement;
+  }
+
+  /**
+   * Sets how fast rebuilds may read logs and index builds, 0 meaning unlimited, and whether they
+   * back off while Jenkins is busy. Applies to a running rebuild as well.
+   */
+  @JavaScriptMethod
+  public JSReturnCollection setThrottle(
+      long megabytesPerSecond, long buildsPerSecond, boolean adaptive) throws IOException {
+    Jenkins.get().getACL().checkPermission(getRequiredPermission());
+    JSReturnCollection statement = new JSReturnCollection();
+    if (megabytesPerSecond < 0
+        || megabytesPerSecond > Long.MAX_VALUE / MEGABYTE
+        || buildsPerSecond < 0) {
+      statement.message = "Invalid rebuild budget";
+      statement.code = 1;
+      return statement;
+    }
+    backendConfig.setRebuildBytesPerSecond(megabytesPerSecond * MEGABYTE);
+    backendConfig.setRebuildBuildsPerSecond(buildsPerSecond);
+    backendConfig.setAdaptiveRebuildThrottle(adaptive);
+    backendConfig.save();
+    backendManager.updateRebuildThrottle();
+    statement.message = "Rebuild budget saved";
+    return statement;
+  }
+
+  public long getRebuildMegabytesPerSecond() {
+    return backendConfig.getRebuildBytesPerSecond() / MEGABYTE;
+  }
+
+  public long getRebuildBuildsPerSecond() {
+    return backendConfig.getRebuildBuildsPerSecond();
+  }
+
+  public boolean isAdaptiveRebuildThrottle() {
+    return backendConfig.isAdaptiveRebuildThrottle();
+  }
+
   private boolean checkJobNames(Set<String> jobs) {
     List<Job> allItems = Jenkins.getInstance().getAllItems(Job.class);
     int size = jobs.size();
@@ -86,12 +155,13 @@ public class LuceneManager extends ManagementLink {
   public void doPostRebuildDatabase(
       StaplerRequest req, StaplerResponse rsp, @QueryParameter int workers)
       throws IOException, ServletException {
-    writeStatus(rsp, rebuildDatabase(workers, "", "overwrite"));
+    writeStatus(rsp, rebuildDatabase(workers, "", "overwrite", "job"));
   }
 
   private JSReturnCollection verifyNotInProgress() {
     JSReturnCollection statement = new JSReturnCollection();
-    if (this.progress != null && !this.progress.isFinished()) {
+    // An aborted rebuild keeps running until its workers have stopped
+    if (this.progress != null && !this.progress.isFinished() || backendManager.isRebuilding()) {
       statement.message = "Currently working, wait for it ....";
       statement.code = 1;
       statement.running = true;
@@ -103,10 +173,9 @@ public class LuceneManager extends ManagementLink {
   @JavaScriptMethod
   public JSReturnCollection abort() {
     Jenkins.get().getACL().checkPermission(getRequiredPermission());
-    JSReturnCollection statement = verifyNotInProgress();
     backendManager.abort();
-    this.progress = null;
-    return statement;
+    // The progress is kept, so no other work starts before the aborted rebuild has stopped
+    return getStatus();
   }
 
   @JavaScriptMethod
@@ -129,6 +198,7 @@ public class LuceneManager extends ManagementLink {
     if (progress != null) {
       statement.progress = progress;
       statement.workers = workers;
+      statement.throttleShare = (int) Math.round(backendManager.getRebuildShare() * 100);
       switch (progress.getState()) {
         case COMPLETE:
           statement.message = "Completed without errors";
@@ -146,6 +216,17 @@ public class LuceneManager extends ManagementLink {
       statement.message = "Never started";
       statement.neverStarted = true;
     }
+    CacheStats cacheStats = backendManager.getHitCacheStats();
+    statement.cacheHits = cacheStats.hitCount();
+    statement.cacheMisses = cacheStats.missCount();
+    statement.cacheEvictions = cacheStats.evictionCount();
+    if (!statement.running) {
+      OptionalInt resumableJobs = backendManager.getResumableJobCount();
+      if (resumableJobs.isPresent()) {
+        statement.resumableJobs = resumableJobs.getAsInt();
+        statement.resumable = true;
+      }
+    }
     return statement;
   }
 
@@ -170,6 +251,12 @@ public class LuceneManager extends ManagementLink {
     private ManagerProgress progress;
     private int workers;
     private boolean neverStarted;
+    private boolean resumable;
+    private int resumableJobs;
+    private int throttleShare = 100;
+    private long cacheHits;
+    private long cacheMisses;
+    private long cacheEvictions;
 
     public int getCode() {
       return code;
@@ -218,5 +305,53 @@ public class LuceneManager extends ManagementLink {
     public void setNeverStarted(boolean neverStarted) {
       this.neverStarted = neverStarted;
     }
+
+    public boolean isResumable() {
+      return resumable;
+    }
+
+    public void setResumable(boolean resumable) {
+      this.resumable = resumable;
+    }
+
+    public int getResumableJobs() {
+      return resumableJobs;
+    }
+
+    public void setResumableJobs(int resumableJobs) {
+      this.resumableJobs = resumableJobs;
+    }
+
+    public int getThrottleShare() {
+      return throttleShare;
+    }
+
+    public void setThrottleShare(int throttleShare) {
+      this.throttleShare = throttleShare;
+    }
+
+    public long getCacheHits() {
+      return cacheHits;
+    }
+
+    public void setCacheHits(long cacheHits) {
+      this.cacheHits = cacheHits;
+    }
+
+    public long getCacheMisses() {
+      return cacheMisses;
+    }
+
+    public void setCacheMisses(long cacheMisses) {
+      this.cacheMisses = cacheMisses;
+    }
+
+    public long getCacheEvictions() {
+      return cacheEvictions;
+    }
+
+    public void setCacheEvictions(long cacheEvictions) {
+      this.cacheEvictions = cacheEvictions;
+    }
   }
 }
@@ -2,14 +2,33 @@ function rebuildDatabase() {
 	var workers = document.getElementById("txtWorkers").value;
 	var jobs = document.getElementById("txtJob").value;
 	var overwrite = document.getElementById("selectOverwrite").value;
+	var order = document.getElementById("selectOrder").value;
 	if (workers < 1) {
 		return;
 	}
-	luceneSearchManager.rebuildDatabase(workers, jobs, overwrite, function(t) {
+	luceneSearchManager.rebuildDatabase(workers, jobs, overwrite, order, function(t) {
 		updateStatusFromResponse(t.responseObject());
 	});
 }
 
+function resumeRebuild() {
+	luceneSearchManager.resumeRebuild(function(t) {
+		updateStatusFromResponse(t.responseObject());
+	});
+}
+
+function setThrottle() {
+	var megabytes = document.getElementById("txtMegabytesPerSecond").value;
+	var builds = document.getElementById("txtBuildsPerSecond").value;
+	var adaptive = document.getElementById("chkAdaptive").checked;
+	luceneSearchManager.setThrottle(megabytes, builds, adaptive, function(t) {
+		var statement = t.responseObject();
+		var messageElement = document.getElementById("message");
+		messageElement.className = ((statement.code !== 0) ? "error" : "success");
+		messageElement.innerHTML = statement.message;
+	});
+}
+
 function getStatus() {
 	luceneSearchManager.getStatus(function(t) {
 		updateStatusFromResponse(t.responseObject());
@@ -36,6 +55,10 @@ function updateStatusFromResponse(statement) {
         	: "");
     document.getElementById("selectOverwrite").style.display = ((statement.running) ? "none"
             : "");
+    document.getElementById("lblOrder").style.display = ((statement.running) ? "none"
+            : "");
+    document.getElementById("selectOrder").style.display = ((statement.running) ? "none"
+            : "");
 	document.getElementById("btnRebuild").style.display = ((statement.running) ? "none"
 			: "");
 	document.getElementById("btnClean").style.display = ((statement.running) ? "none"
@@ -52,12 +75,19 @@ function updateStatusFromResponse(statement) {
             : "")
     document.getElementById("lblWorkers").style.display = ((statement.running) ? "none"
             : "")
+    document.getElementById("resume").style.display = ((statement.resumable) ? ""
+            : "none")
+    document.getElementById("resumableJobs").innerHTML = statement.resumableJobs;
+    document.getElementById("cacheHits").innerHTML = statement.cacheHits;
+    document.getElementById("cacheMisses").innerHTML = statement.cacheMisses;
+    document.getElementById("cacheEvictions").innerHTML = statement.cacheEvictions;
 	if (statement.progress) {
 		var progress = statement.progress;
 		document.getElementById("currentWorkers").innerHTML = statement.workers;
 		document.getElementById("currentlyProcessing").innerHTML = progress.name;
 		document.getElementById("currentlyProcessingIndex").innerHTML = progress.current;
 		document.getElementById("currentlyProcessingMax").innerHTML = progress.max;
+		document.getElementById("throttleShare").innerHTML = statement.throttleShare;
 		document.getElementById("totalProcessesedRun").innerHTML = progress.processedItems;
 		document.getElementById("currentElapsedTime").innerHTML = (progress.elapsedTime / 1000)
 				+ "s";
@@ -1,13 +1,25 @@
-function loadPrev() {
-    search.prev(function(t) {
-        load(t.responseObject());
+// The cursors of the pages seen so far; the first page has none
+var cursors = [null];
+var currentPage = -1;
+
+function loadPage(page) {
+    search.page(cursors[page], function(t) {
+        var result = t.responseObject();
+        currentPage = page;
+        cursors.length = page + 1;
+        if (result.nextCursor) {
+            cursors.push(result.nextCursor);
+        }
+        load(result.hits);
     });
 }
 
+function loadPrev() {
+    loadPage(Math.max(currentPage - 1, 0));
+}
+
 function loadNext() {
-    search.next(function(t) {
-        load(t.responseObject());
-    });
+    loadPage(Math.min(currentPage + 1, cursors.length - 1));
 }
 
 function toBottom() {
@@ -47,13 +59,17 @@ function load(hits) {
                 list.appendChild(div);
             }
         }
+        if (hit.consoleUrl) {
+            var line = document.createElement("a");
+            line.href = hit.consoleUrl;
+            line.appendChild(document.createTextNode("line " + hit.consoleLine));
+            list.appendChild(document.createTextNode(" "));
+            list.appendChild(line);
+        }
         results.appendChild(list);
     }
-    search.isFirstPage(function(t) {
-        document.getElementById("btnPrev").style.display = (t.responseObject()) ? "none" : "";
-    })
-    search.isLastPage(function(t) {
-        document.getElementById("btnNext").style.display = (t.responseObject()) ? "none" : "";
-    })
+    document.getElementById("btnPrev").style.display = (currentPage <= 0) ? "none" : "";
+    document.getElementById("btnNext").style.display =
+        (currentPage >= cursors.length - 1) ? "none" : "";
     window.scrollTo(0, 0);
 }
\ No newline at end of file
@@ -0,0 +1,59 @@
+package org.jenkinsci.plugins.lucene.search;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import hudson.console.ConsoleNote;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+
+public class ConsoleLineReaderTest {
+
+  private static ConsoleLineReader reader(String log, long maxBytes, long tailBytes) {
+    byte[] bytes = log.getBytes(StandardCharsets.UTF_8);
+    return new ConsoleLineReader(
+        new ByteArrayInputStream(bytes), StandardCharsets.UTF_8, bytes.length, maxBytes, tailBytes);
+  }
+
+  private static List<String> readAll(ConsoleLineReader reader) throws IOException {
+    List<String> lines = new ArrayList<>();
+    String line;
+    while ((line = reader.readLine()) != null) {
+      lines.add(reader.getLineNumber() + ":" + line);
+    }
+    return lines;
+  }
+
+  @Test
+  public void readsAllLinesWithoutNotesAndCarriageReturns() throws IOException {
+    String note = ConsoleNote.PREAMBLE_STR + "AAAA" + ConsoleNote.POSTAMBLE_STR;
+    ConsoleLineReader reader = reader("first\r\n" + note + "second\nlast", 0, 0);
+    assertEquals(List.of("1:first", "2:second", "3:last"), readAll(reader));
+    assertNull(reader.readLine());
+  }
+
+  @Test
+  public void keepsHeadAndTailOfLargeLogs() throws IOException {
+    ConsoleLineReader reader = reader("l0\nl1\nl2\nl3\nl4\nl5\nl6\nl7\nl8\nl9\n", 12, 6);
+    assertEquals(List.of("1:l0", "2:l1", "9:l8", "10:l9"), readAll(reader));
+  }
+
+  @Test
+  public void tailStartsAtTheNextCompleteLine() throws IOException {
+    ConsoleLineReader reader = reader("l0\nl1\nl2\nl3\nl4\nl5\nl6\nl7\nl8\nl9\n", 12, 5);
+    assertEquals(List.of("1:l0", "2:l1", "3:l2", "10:l9"), readAll(reader));
+  }
+
+  @Test
+  public void skippedLinesAreCountedButNotReturned() throws IOException {
+    ConsoleLineReader reader = reader("l0\nl1\nl2\nl3\n", 0, 0);
+    reader.skipLines(2);
+    assertEquals(List.of("3:l2", "4:l3"), readAll(reader));
+    reader.skipLines(1);
+    assertNull(reader.readLine());
+  }
+}
@@ -4,18 +4,26 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
 
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import hudson.model.FreeStyleBuild;
 import hudson.model.FreeStyleProject;
 import hudson.tasks.Shell;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import org.jenkinsci.plugins.lucene.search.FreeTextSearchItemImplementation;
 import org.jenkinsci.plugins.lucene.search.management.LuceneManager;
 import org.jvnet.hudson.test.JenkinsRule;
 import org.xml.sax.SAXException;
@@ -24,6 +32,20 @@ public class CommonTestCases {
 
   private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
 
+  /** Creates a job whose builds print {@code needle42}. */
+  private static FreeStyleProject createNeedleProject(JenkinsRule rule, String name)
+      throws IOException {
+    FreeStyleProject project = rule.createFreeStyleProject(name);
+    project.getBuildersList().add(new Shell("echo needle42\n"));
+    return project;
+  }
+
+  private static String cursor(String value) {
+    return Base64.getUrlEncoder()
+        .withoutPadding()
+        .encodeToString(value.getBytes(StandardCharsets.UTF_8));
+  }
+
   public static void rebuildDatabase(
       final JenkinsSearchBackend jenkinsSearchBackend, JenkinsRule rule)
       throws IOException, SAXException, InterruptedException, ExecutionException, TimeoutException {
@@ -103,4 +125,78 @@ public class CommonTestCases {
       throw new AssertionError(e);
     }
   }
+
+  public static void givenStaleOrTamperedCursorWhenPagingThenTheFirstPageIsReturned(
+      JenkinsSearchBackend jenkinsSearchBackend, JenkinsRule rule) throws Exception {
+    FreeStyleProject project = createNeedleProject(rule, "project1");
+    rule.buildAndAssertSuccess(project);
+    rule.buildAndAssertSuccess(project);
+    assertEquals(2, jenkinsSearchBackend.getHits("needle42", null, false).getHits().size());
+    long version = jenkinsSearchBackend.getIndexGeneration();
+
+    // The searcher of the cursor is gone
+    String stale = cursor((version + 1000) + ":0:0");
+    assertEquals(2, jenkinsSearchBackend.getHits("needle42", stale, false).getHits().size());
+    // A document the searcher of the cursor does not have
+    String tampered = cursor(version + ":1000000:0");
+    assertEquals(2, jenkinsSearchBackend.getHits("needle42", tampered, false).getHits().size());
+    tampered = cursor(version + ":1000000:0:0");
+    assertEquals(2, jenkinsSearchBackend.getHits("needle42", tampered, true).getHits().size());
+    // A cursor of the other order
+    String newestFirst = cursor(version + ":0:0:0");
+    assertEquals(2, jenkinsSearchBackend.getHits("needle42", newestFirst, false).getHits().size());
+  }
+
+  public static void givenCachedHitsWhenAnotherBuildIsIndexedThenItIsFound(
+      JenkinsSearchBackend jenkinsSearchBackend, JenkinsRule rule) throws Exception {
+    FreeStyleProject project = createNeedleProject(rule, "project1");
+    rule.buildAndAssertSuccess(project);
+    assertEquals(1, jenkinsSearchBackend.getHits("needle42", null, false).getHits().size());
+    CacheStats before = jenkinsSearchBackend.getManager().getHitCacheStats();
+    assertEquals(1, jenkinsSearchBackend.getHits("needle42", null, false).getHits().size());
+    CacheStats repeated = jenkinsSearchBackend.getManager().getHitCacheStats();
+    assertEquals(before.hitCount() + 1, repeated.hitCount());
+    assertEquals(before.missCount(), repeated.missCount());
+
+    // The cached page belongs to the generation of the index before the build
+    rule.buildAndAssertSuccess(project);
+    assertEquals(2, jenkinsSearchBackend.getHits("needle42", null, false).getHits().size());
+    CacheStats after = jenkinsSearchBackend.getManager().getHitCacheStats();
+    assertEquals(repeated.hitCount(), after.hitCount());
+    assertEquals(repeated.missCount() + 1, after.missCount());
+  }
+
+  public static void givenJobNameAsFirstWordWhenSearchingThenOnlyThatJobIsSearched(
+      JenkinsSearchBackend jenkinsSearchBackend, JenkinsRule rule) throws Exception {
+    rule.buildAndAssertSuccess(createNeedleProject(rule, "project1"));
+    FreeStyleProject project10 = createNeedleProject(rule, "project10");
+    rule.buildAndAssertSuccess(project10);
+    rule.buildAndAssertSuccess(project10);
+
+    // The job name is matched exactly, so project10 is not searched along
+    List<FreeTextSearchItemImplementation> hits =
+        jenkinsSearchBackend.getHits("project1 needle42", null, false).getHits();
+    assertEquals(1, hits.size());
+    assertEquals("project1", hits.get(0).getProjectName());
+    hits = jenkinsSearchBackend.getHits("project10 needle42", null, false).getHits();
+    assertEquals(2, hits.size());
+  }
+
+  public static void givenBuildsOfSeveralJobsWhenSearchingNewestFirstThenTheNewestComesFirst(
+      JenkinsSearchBackend jenkinsSearchBackend, JenkinsRule rule) throws Exception {
+    FreeStyleProject project1 = createNeedleProject(rule, "project1");
+    FreeStyleProject project2 = createNeedleProject(rule, "project2");
+    List<FreeStyleBuild> builds = new ArrayList<>();
+    builds.add(rule.buildAndAssertSuccess(project1));
+    builds.add(rule.buildAndAssertSuccess(project2));
+    builds.add(rule.buildAndAssertSuccess(project1));
+    Collections.reverse(builds);
+
+    List<FreeTextSearchItemImplementation> hits =
+        jenkinsSearchBackend.getHits("needle42", null, true).getHits();
+    assertEquals(builds.size(), hits.size());
+    for (int i = 0; i < builds.size(); i++) {
+      assertEquals(builds.get(i).getUrl(), hits.get(i).getSearchUrl());
+    }
+  }
 }
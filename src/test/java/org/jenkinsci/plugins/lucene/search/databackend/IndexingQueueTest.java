@@ -0,0 +1,109 @@
+package org.jenkinsci.plugins.lucene.search.databackend;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import hudson.model.FreeStyleProject;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.jvnet.hudson.test.JenkinsRule;
+
+public class IndexingQueueTest {
+  @Rule public JenkinsRule rule = new JenkinsRule();
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  private final List<String> indexed = new CopyOnWriteArrayList<>();
+
+  private List<String> buildIds(int builds) throws Exception {
+    FreeStyleProject project = rule.createFreeStyleProject("project1");
+    List<String> ids = new ArrayList<>();
+    for (int i = 0; i < builds; i++) {
+      ids.add(rule.buildAndAssertSuccess(project).getExternalizableId());
+    }
+    return ids;
+  }
+
+  private void awaitIndexed(int builds) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (indexed.size() < builds && System.currentTimeMillis() < deadline) {
+      Thread.sleep(50);
+    }
+    assertEquals(builds, indexed.size());
+  }
+
+  @Test(timeout = 30000)
+  public void givenFullQueueWhenBuildsAreAddedThenTheyAreSpilledAndIndexedLater()
+      throws Exception {
+    List<String> ids = buildIds(3);
+    File pendingFile = new File(folder.getRoot(), "pending.txt");
+    CountDownLatch release = new CountDownLatch(1);
+    IndexingQueue queue =
+        new IndexingQueue(
+            run -> {
+              try {
+                release.await();
+              } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+              }
+              indexed.add(run.getExternalizableId());
+            },
+            pendingFile,
+            1,
+            1);
+    try {
+      // The first build keeps the only worker busy and the second one fills the queue
+      for (String id : ids) {
+        queue.add(id);
+      }
+      assertEquals(
+          List.of(ids.get(2)), Files.readAllLines(pendingFile.toPath(), StandardCharsets.UTF_8));
+
+      release.countDown();
+      awaitIndexed(3);
+      assertEquals(new HashSet<>(ids), new HashSet<>(indexed));
+      assertFalse(pendingFile.exists());
+    } finally {
+      queue.close();
+    }
+  }
+
+  @Test(timeout = 30000)
+  public void givenPendingBuildsWhenQueueStartsThenTheyAreIndexed() throws Exception {
+    List<String> ids = buildIds(2);
+    File pendingFile = new File(folder.getRoot(), "pending.txt");
+    Files.write(pendingFile.toPath(), ids, StandardCharsets.UTF_8);
+    IndexingQueue queue =
+        new IndexingQueue(run -> indexed.add(run.getExternalizableId()), pendingFile, 2, 10);
+    try {
+      queue.drainPending();
+      awaitIndexed(2);
+      assertEquals(new HashSet<>(ids), new HashSet<>(indexed));
+      assertFalse(pendingFile.exists());
+    } finally {
+      queue.close();
+    }
+  }
+
+  @Test
+  public void givenClosedQueueWhenBuildsAreAddedThenTheyAreRemembered() throws IOException {
+    File pendingFile = new File(folder.getRoot(), "pending.txt");
+    IndexingQueue queue =
+        new IndexingQueue(run -> indexed.add(run.getExternalizableId()), pendingFile, 1, 1);
+    queue.close();
+    queue.add("project1#1");
+    assertTrue(indexed.isEmpty());
+    assertEquals(
+        List.of("project1#1"), Files.readAllLines(pendingFile.toPath(), StandardCharsets.UTF_8));
+  }
+}
@@ -1,5 +1,7 @@
 package org.jenkinsci.plugins.lucene.search.databackend;
 
+import static org.junit.Assert.assertTrue;
+
 import com.google.common.io.Resources;
 import hudson.search.Search;
 import java.io.IOException;
@@ -33,6 +35,7 @@ public class JenkinsSearchBackend {
   }
 
   public Search.Result search(String query) throws IOException, SAXException {
+    waitForQueuedBuilds();
     URL status = new URL(rule.getURL(), "search/suggest?query=" + query);
     String jsonString = Resources.toString(status, Charset.defaultCharset());
     Search.Result list =
@@ -40,6 +43,29 @@ public class JenkinsSearchBackend {
     return list;
   }
 
+  /** Returns a page of hits once the queued builds have been indexed. */
+  public HitPage getHits(String query, String cursor, boolean newestFirst) throws IOException {
+    waitForQueuedBuilds();
+    return getManager().getHits(query, cursor, newestFirst);
+  }
+
+  public long getIndexGeneration() throws IOException {
+    waitForQueuedBuilds();
+    return getManager().getIndexGeneration();
+  }
+
+  private void waitForQueuedBuilds() throws IOException {
+    try {
+      assertTrue("Builds still queued for indexing", getManager().waitForQueuedBuilds(5000));
+    } catch (InterruptedException e) {
+      throw new IOException(e);
+    }
+  }
+
+  public SearchBackendManager getManager() {
+    return rule.jenkins.getInjector().getInstance(SearchBackendManager.class);
+  }
+
   public LuceneManager.JSReturnCollection getRebuildStatus(URL url) throws IOException {
     JenkinsRule.WebClient wc = rule.createWebClient();
     String jsonString = wc.postJSON(url.toString(), new JSONObject()).getContentAsString();
@@ -0,0 +1,108 @@
+package org.jenkinsci.plugins.lucene.search.databackend;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import hudson.model.FreeStyleBuild;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+public class LiveConsoleIndexerTest {
+  @Rule public JenkinsRule rule = new JenkinsRule();
+
+  private FreeStyleBuild run;
+
+  @Before
+  public void setup() throws Exception {
+    run = rule.buildAndAssertSuccess(rule.createFreeStyleProject("project1"));
+  }
+
+  private static void writeLines(OutputStream out, int lines) throws IOException {
+    for (int i = 1; i <= lines; i++) {
+      out.write(("line " + i + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+  }
+
+  @Test(timeout = 30000)
+  public void givenRunningBuildWhenLinesAreWrittenThenFullChunksAreIndexed() throws Exception {
+    List<String> chunks = new CopyOnWriteArrayList<>();
+    LiveConsoleIndexer indexer =
+        new LiveConsoleIndexer(
+            (build, firstLine, text) -> chunks.add(firstLine + ":" + text.split("\n")[0]));
+    try {
+      ByteArrayOutputStream log = new ByteArrayOutputStream();
+      OutputStream out = indexer.tap(run, log, Long.MAX_VALUE);
+      writeLines(out, 250);
+      out.flush();
+      // The last 50 lines do not fill a chunk and are left for the finished build
+      assertEquals(200, indexer.finish(run));
+      assertEquals(List.of("1:line 1", "101:line 101"), chunks);
+      assertTrue(log.toString(StandardCharsets.UTF_8.name()).endsWith("line 250\n"));
+    } finally {
+      indexer.close();
+    }
+  }
+
+  @Test(timeout = 30000)
+  public void givenFailingWriteWhenBuildFinishesThenConsoleIsIndexedInFull() throws Exception {
+    AtomicInteger writes = new AtomicInteger();
+    LiveConsoleIndexer indexer =
+        new LiveConsoleIndexer(
+            (build, firstLine, text) -> {
+              writes.incrementAndGet();
+              throw new IOException("Index unavailable");
+            });
+    try {
+      OutputStream out = indexer.tap(run, new ByteArrayOutputStream(), Long.MAX_VALUE);
+      writeLines(out, 300);
+      assertEquals(0, indexer.finish(run));
+      // Chunks queued after the failure are skipped rather than written next to the full console
+      assertEquals(1, writes.get());
+    } finally {
+      indexer.close();
+    }
+  }
+
+  @Test(timeout = 30000)
+  public void givenChunkBeingWrittenWhenBuildIsDiscardedThenNoChunkIsWrittenAfterwards()
+      throws Exception {
+    CountDownLatch writing = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicInteger written = new AtomicInteger();
+    LiveConsoleIndexer indexer =
+        new LiveConsoleIndexer(
+            (build, firstLine, text) -> {
+              writing.countDown();
+              try {
+                release.await();
+              } catch (InterruptedException e) {
+                throw new IOException(e);
+              }
+              written.incrementAndGet();
+            });
+    try {
+      OutputStream out = indexer.tap(run, new ByteArrayOutputStream(), Long.MAX_VALUE);
+      writeLines(out, 200);
+      writing.await();
+      Thread discard = new Thread(() -> indexer.discard(run));
+      discard.start();
+      discard.join(200);
+      assertTrue("Discarding must wait for the chunk being written", discard.isAlive());
+      release.countDown();
+      discard.join();
+      assertEquals(1, written.get());
+    } finally {
+      indexer.close();
+    }
+  }
+}
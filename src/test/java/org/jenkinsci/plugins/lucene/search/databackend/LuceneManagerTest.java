@@ -0,0 +1,58 @@
+package org.jenkinsci.plugins.lucene.search.databackend;
+
+import static org.junit.Assert.assertEquals;
+
+import hudson.model.ManagementLink;
+import java.io.File;
+import java.util.Collections;
+import java.util.OptionalInt;
+import jenkins.model.GlobalConfiguration;
+import org.jenkinsci.plugins.lucene.search.config.SearchBackendConfiguration;
+import org.jenkinsci.plugins.lucene.search.management.LuceneManager;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+public class LuceneManagerTest {
+  @Rule public JenkinsRule rule = new JenkinsRule();
+
+  @Test
+  public void givenInvalidRebuildBudgetWhenItIsSavedThenTheSavedBudgetIsKept() throws Exception {
+    LuceneManager manager = ManagementLink.all().get(LuceneManager.class);
+    assertEquals(0, manager.setThrottle(10, 5, false).getCode());
+
+    assertEquals(1, manager.setThrottle(-1, 5, false).getCode());
+    assertEquals(1, manager.setThrottle(10, -1, false).getCode());
+    // Would overflow once converted to bytes
+    assertEquals(1, manager.setThrottle(Long.MAX_VALUE, 5, false).getCode());
+    assertEquals(10, manager.getRebuildMegabytesPerSecond());
+    assertEquals(5, manager.getRebuildBuildsPerSecond());
+  }
+
+  @Test
+  public void givenInterruptedRebuildWhenItsCheckpointsChangeThenTheStatusFollows()
+      throws Exception {
+    SearchBackendManager backendManager =
+        rule.jenkins.getInjector().getInstance(SearchBackendManager.class);
+    File lucenePath =
+        (File)
+            GlobalConfiguration.all()
+                .get(SearchBackendConfiguration.class)
+                .getConfig()
+                .get("lucenePath");
+    RebuildCheckpoint.start(
+        new File(lucenePath.getParentFile(), lucenePath.getName() + "-rebuild.xml"),
+        1,
+        Collections.emptySet(),
+        true,
+        false);
+    assertEquals(OptionalInt.of(0), backendManager.getResumableJobCount());
+
+    RebuildCheckpoint checkpoint = backendManager.getInterruptedRebuild();
+    checkpoint.jobCompleted("project1", 1);
+    checkpoint.save();
+    assertEquals(OptionalInt.of(1), backendManager.getResumableJobCount());
+    checkpoint.delete();
+    assertEquals(OptionalInt.empty(), backendManager.getResumableJobCount());
+  }
+}
@@ -0,0 +1,310 @@
+package org.jenkinsci.plugins.lucene.search.databackend;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import hudson.model.FreeStyleBuild;
+import hudson.model.FreeStyleProject;
+import hudson.tasks.Shell;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.jenkinsci.plugins.lucene.search.FreeTextSearchItemImplementation;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.jvnet.hudson.test.JenkinsRule;
+
+public class LuceneSearchBackendIndexTest {
+  @Rule public JenkinsRule rule = new JenkinsRule();
+  @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+  private LuceneSearchBackend backend;
+
+  @Before
+  public void setup() throws IOException {
+    Map<String, Object> config = new HashMap<>();
+    config.put("lucenePath", folder.newFolder("index"));
+    // Every change is committed at once, so the index only changes when a build is written
+    config.put("durability", Durability.EVERY_CHANGE);
+    backend = new LuceneSearchBackend(config);
+  }
+
+  @After
+  public void tearDown() {
+    backend.close();
+  }
+
+  private List<FreeTextSearchItemImplementation> search(String query) {
+    return backend.getHits(query, null, false, null).getHits();
+  }
+
+  private List<FreeStyleBuild> storeBuilds(FreeStyleProject project, int count) throws Exception {
+    List<FreeStyleBuild> builds = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      FreeStyleBuild build = rule.buildAndAssertSuccess(project);
+      backend.storeBuild(build);
+      builds.add(build);
+    }
+    return builds;
+  }
+
+  private static BitSet numbers(int... numbers) {
+    BitSet bits = new BitSet();
+    for (int number : numbers) {
+      bits.set(number);
+    }
+    return bits;
+  }
+
+  private ManagerProgress rebuild(boolean overwrite, boolean newestFirst) throws Exception {
+    RebuildCheckpoint checkpoint =
+        RebuildCheckpoint.start(
+            new File(folder.getRoot(), "rebuild.xml"),
+            2,
+            Collections.emptySet(),
+            overwrite,
+            newestFirst);
+    ManagerProgress progress = new ManagerProgress();
+    backend.rebuildDatabase(progress, checkpoint, new RebuildThrottle());
+    progress.assertNoErrors();
+    return progress;
+  }
+
+  @Test(timeout = 30000)
+  public void givenLongConsoleWhenItMatchesThenTheHitLinksToTheHighlightedLine() throws Exception {
+    FreeStyleProject project = rule.createFreeStyleProject("project1");
+    String script = "for i in $(seq 1 150); do echo filler; done\necho needle42\n";
+    project.getBuildersList().add(new Shell(script));
+    FreeStyleBuild build = rule.buildAndAssertSuccess(project);
+    backend.storeBuild(build);
+
+    List<String> log = build.getLog(Integer.MAX_VALUE);
+    int expectedLine = 0;
+    while (!log.get(expectedLine).contains("needle42")) {
+      expectedLine++;
+    }
+    List<FreeTextSearchItemImplementation> hits = search("needle42");
+    assertEquals(1, hits.size());
+    FreeTextSearchItemImplementation hit = hits.get(0);
+    // The match is beyond the first chunk of the console
+    assertTrue(expectedLine >= 100);
+    assertEquals(expectedLine + 1, hit.getConsoleLine());
+    assertNotNull(hit.getConsoleUrl());
+    assertTrue(String.join("", hit.getBestFragments()).contains("<B>needle42</B>"));
+  }
+
+  @Test(timeout = 30000)
+  public void givenNoHighlightBudgetWhenSearchingConsolesThenHitsHaveNoFragments()
+      throws Exception {
+    backend.close();
+    Map<String, Object> config = new HashMap<>();
+    config.put("lucenePath", folder.newFolder("unhighlighted"));
+    config.put("durability", Durability.EVERY_CHANGE);
+    config.put("highlightBudget", 0L);
+    backend = new LuceneSearchBackend(config);
+    FreeStyleProject project = rule.createFreeStyleProject("project1");
+    project.getBuildersList().add(new Shell("echo needle42\n"));
+    storeBuilds(project, 1);
+
+    List<FreeTextSearchItemImplementation> hits = search("needle42");
+    assertEquals(1, hits.size());
+    assertEquals(0, hits.get(0).getBestFragments().length);
+    assertNull(hits.get(0).getConsoleUrl());
+  }
+
+  @Test(timeout = 30000)
+  public void givenIndexedBuildWhenItIsStoredAgainThenItIsFoundOnce() throws Exception {
+    FreeStyleProject project = rule.createFreeStyleProject("project1");
+    project.getBuildersList().add(new Shell("echo needle42\n"));
+    FreeStyleBuild build = rule.buildAndAssertSuccess(project);
+    backend.storeBuild(build);
+    backend.storeBuild(build);
+    backend.updateBuild(build);
+
+    List<FreeTextSearchItemImplementation> hits = search("needle42");
+    assertEquals(1, hits.size());
+    assertEquals(1, backend.getIndexedBuildNumbers("project1").cardinality());
+  }
+
+  @Test(timeout = 30000)
+  public void givenUnchangedBuildWhenItIsUpdatedThenTheIndexIsNotWritten() throws Exception {
+    FreeStyleBuild build = rule.buildAndAssertSuccess(rule.createFreeStyleProject("project1"));
+    backend.storeBuild(build);
+    long generation = backend.getIndexGeneration();
+    backend.updateBuild(build);
+    assertEquals(generation, backend.getIndexGeneration());
+
+    build.setDisplayName("renamed42");
+    backend.updateBuild(build);
+    assertNotEquals(generation, backend.getIndexGeneration());
+    assertEquals(1, search("renamed42").size());
+  }
+
+  @Test(timeout = 30000)
+  public void givenBuildsWhenSearchingARangeOfBuildNumbersThenTheBuildsInRangeAreFound()
+      throws Exception {
+    storeBuilds(rule.createFreeStyleProject("project1"), 3);
+
+    assertEquals(2, search("n:[1 TO 2]").size());
+    assertEquals(2, search("n:{1 TO *]").size());
+    assertEquals(1, search("n:2").size());
+  }
+
+  @Test(timeout = 30000)
+  public void givenRenamedBuildWhenSuggestingThenOnlyTheNewNameIsSuggested() throws Exception {
+    FreeStyleBuild build = rule.buildAndAssertSuccess(rule.createFreeStyleProject("project1"));
+    backend.storeBuild(build);
+    build.setDisplayName("renamed42");
+    backend.updateBuild(build);
+
+    List<FreeTextSearchItemImplementation> suggestions =
+        backend.getSuggestions("project1", 10, null);
+    assertEquals(1, suggestions.size());
+    assertEquals("project1 renamed42", suggestions.get(0).getSearchName());
+  }
+
+  @Test
+  public void givenDocumentsDifferingInDocValuesWhenFingerprintedThenTheFingerprintsDiffer() {
+    Document first = new Document();
+    first.add(new NumericDocValuesField(LuceneSearchBackend.TIMESTAMP, 1));
+    Document second = new Document();
+    second.add(new NumericDocValuesField(LuceneSearchBackend.TIMESTAMP, 2));
+    assertNotEquals(
+        LuceneSearchBackend.getFingerprint(first), LuceneSearchBackend.getFingerprint(second));
+  }
+
+  @Test(timeout = 30000)
+  public void givenRemovedBuildWhenRebuildingWithoutOverwriteThenItIsStoredAgain()
+      throws Exception {
+    FreeStyleProject project = rule.createFreeStyleProject("project1");
+    project.getBuildersList().add(new Shell("echo needle42\n"));
+    List<FreeStyleBuild> builds = storeBuilds(project, 3);
+    backend.removeBuild(builds.get(1));
+    assertEquals(numbers(1, 3), backend.getIndexedBuildNumbers("project1"));
+
+    rebuild(false, false);
+    assertEquals(numbers(1, 2, 3), backend.getIndexedBuildNumbers("project1"));
+    // The builds that were indexed already are not stored a second time
+    assertEquals(3, search("needle42").size());
+  }
+
+  @Test(timeout = 60000)
+  public void givenInterruptedRebuildWhenItIsResumedThenBuildsAreReplacedOnce() throws Exception {
+    FreeStyleProject project1 = rule.createFreeStyleProject("project1");
+    project1.getBuildersList().add(new Shell("echo needle42\n"));
+    storeBuilds(project1, 1);
+    FreeStyleProject project2 = rule.createFreeStyleProject("project2");
+    project2.getBuildersList().add(new Shell("echo needle42\n"));
+    storeBuilds(project2, 4);
+
+    File checkpointFile = new File(folder.getRoot(), "rebuild.xml");
+    RebuildCheckpoint checkpoint =
+        RebuildCheckpoint.start(checkpointFile, 1, Collections.emptySet(), true, false);
+    RebuildThrottle throttle = new RebuildThrottle();
+    throttle.setLimits(0, 1, false);
+    ManagerProgress progress = new ManagerProgress();
+    Thread rebuild = new Thread(() -> backend.rebuildDatabase(progress, checkpoint, throttle));
+    rebuild.start();
+    // The first job is rebuilt at once, the builds of the second one are let through one a second
+    while (checkpoint.getCompletedLastBuild("project1") == null) {
+      Thread.sleep(10);
+    }
+    backend.abort();
+    rebuild.join();
+
+    // The aborted rebuild publishes nothing, so every build is still found
+    assertEquals(5, search("needle42").size());
+    RebuildCheckpoint interrupted = RebuildCheckpoint.load(checkpointFile);
+    assertNotNull(interrupted);
+    assertEquals(Integer.valueOf(1), interrupted.getCompletedLastBuild("project1"));
+
+    ManagerProgress resumed = new ManagerProgress();
+    backend.rebuildDatabase(resumed, interrupted, new RebuildThrottle());
+    resumed.assertNoErrors();
+    assertFalse(checkpointFile.exists());
+    assertEquals(5, search("needle42").size());
+    assertEquals(numbers(1), backend.getIndexedBuildNumbers("project1"));
+    assertEquals(numbers(1, 2, 3, 4), backend.getIndexedBuildNumbers("project2"));
+  }
+
+  @Test(timeout = 60000)
+  public void givenRunningRebuildWhenAnotherIsStartedThenItIsRefused() throws Exception {
+    storeBuilds(rule.createFreeStyleProject("project1"), 3);
+    RebuildCheckpoint checkpoint =
+        RebuildCheckpoint.start(
+            new File(folder.getRoot(), "rebuild.xml"), 1, Collections.emptySet(), true, false);
+    RebuildThrottle throttle = new RebuildThrottle();
+    throttle.setLimits(0, 1, false);
+    ManagerProgress progress = new ManagerProgress();
+    Thread rebuild = new Thread(() -> backend.rebuildDatabase(progress, checkpoint, throttle));
+    rebuild.start();
+    while (!backend.isRebuilding()) {
+      Thread.sleep(10);
+    }
+
+    ManagerProgress refused = new ManagerProgress();
+    RebuildCheckpoint other =
+        RebuildCheckpoint.start(
+            new File(folder.getRoot(), "other.xml"), 1, Collections.emptySet(), true, false);
+    backend.rebuildDatabase(refused, other, new RebuildThrottle());
+    assertEquals(Progress.ProgressState.COMPLETE_WITH_ERROR, refused.getState());
+    assertTrue(backend.isRebuilding());
+
+    // The refused rebuild did not revive the aborted one, which stops without publishing
+    backend.abort();
+    rebuild.join();
+    assertEquals(Progress.ProgressState.COMPLETE_WITH_ERROR, progress.getState());
+    assertFalse(backend.isRebuilding());
+  }
+
+  @Test(timeout = 30000)
+  public void givenInterleavedBuildsWhenRebuildingNewestFirstThenEveryBuildIsReplaced()
+      throws Exception {
+    FreeStyleProject project1 = rule.createFreeStyleProject("project1");
+    project1.getBuildersList().add(new Shell("echo needle42\n"));
+    FreeStyleProject project2 = rule.createFreeStyleProject("project2");
+    project2.getBuildersList().add(new Shell("echo needle42\n"));
+    storeBuilds(project1, 1);
+    storeBuilds(project2, 1);
+    storeBuilds(project1, 1);
+    // A job without builds begins and completes at once
+    rule.createFreeStyleProject("project3");
+
+    rebuild(true, true);
+    assertEquals(3, search("needle42").size());
+    assertEquals(numbers(1, 2), backend.getIndexedBuildNumbers("project1"));
+    assertEquals(numbers(1), backend.getIndexedBuildNumbers("project2"));
+  }
+
+  @Test(timeout = 30000)
+  public void givenJobsWithInterleavedBuildsWhenRebuildingNewestFirstThenTheNewestBeginsFirst()
+      throws Exception {
+    FreeStyleProject project1 = rule.createFreeStyleProject("project1");
+    FreeStyleProject project2 = rule.createFreeStyleProject("project2");
+    storeBuilds(project1, 1);
+    storeBuilds(project2, 1);
+    storeBuilds(project1, 1);
+    storeBuilds(project2, 1);
+
+    // Job by job, project1 would begin first
+    List<String> begun = new ArrayList<>();
+    for (Progress job : rebuild(true, true).getHistory()) {
+      begun.add(job.getName());
+    }
+    assertEquals(List.of("project2", "project1"), begun);
+  }
+}
@@ -55,4 +55,33 @@ public class LuceneSearchBackendTest {
     jenkinsSearchBackend.setLuceneBackend(false);
     CommonTestCases.givenSearchWhenIsNewItShouldSupportRebuildFromClean(jenkinsSearchBackend, rule);
   }
+
+  @Test(timeout = 30000)
+  public void givenLuceneWhenPagingWithStaleOrTamperedCursorThenTheFirstPageIsReturned()
+      throws Exception {
+    jenkinsSearchBackend.setLuceneBackend(false);
+    CommonTestCases.givenStaleOrTamperedCursorWhenPagingThenTheFirstPageIsReturned(
+        jenkinsSearchBackend, rule);
+  }
+
+  @Test(timeout = 30000)
+  public void givenLuceneWhenAnotherBuildIsIndexedThenCachedHitsAreNotReused() throws Exception {
+    jenkinsSearchBackend.setLuceneBackend(false);
+    CommonTestCases.givenCachedHitsWhenAnotherBuildIsIndexedThenItIsFound(
+        jenkinsSearchBackend, rule);
+  }
+
+  @Test(timeout = 30000)
+  public void givenLuceneWhenJobNameIsTheFirstWordThenOnlyThatJobIsSearched() throws Exception {
+    jenkinsSearchBackend.setLuceneBackend(false);
+    CommonTestCases.givenJobNameAsFirstWordWhenSearchingThenOnlyThatJobIsSearched(
+        jenkinsSearchBackend, rule);
+  }
+
+  @Test(timeout = 30000)
+  public void givenLuceneWhenSearchingNewestFirstThenTheNewestBuildComesFirst() throws Exception {
+    jenkinsSearchBackend.setLuceneBackend(false);
+    CommonTestCases.givenBuildsOfSeveralJobsWhenSearchingNewestFirstThenTheNewestComesFirst(
+        jenkinsSearchBackend, rule);
+  }
 }
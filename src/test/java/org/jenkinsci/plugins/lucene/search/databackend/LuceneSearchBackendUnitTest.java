@@ -17,7 +17,9 @@ public class LuceneSearchBackendUnitTest {
           "j:folder/job",
           "j:\"this is a job\"",
           "j:folder/job c:something",
-          "j:folder/job AND c:something"
+          "j:folder/job AND c:something",
+          "n:[1 TO 10]",
+          "[1 TO 10]"
         };
     String[] expected =
         new String[] {
@@ -28,7 +30,9 @@ public class LuceneSearchBackendUnitTest {
           "j:folder\\/job",
           "j:\\\"this is a job\\\"",
           "j:folder\\/job c:something",
-          "j:folder\\/job AND c:something"
+          "j:folder\\/job AND c:something",
+          "n:[1 TO 10]",
+          "\\[1 TO 10\\]"
         };
     for (int i = 0; i < input.length; i++) {
       assertEquals(expected[i], LuceneSearchBackend.escapeQuery(input[i]));
@@ -0,0 +1,175 @@
+package org.jenkinsci.plugins.lucene.search.databackend;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.queryparser.classic.MultiFieldQueryParser;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MultiTermQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.jenkinsci.plugins.lucene.search.Field;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares preparing a query the way searches used to with preparing it through the {@link
+ * QueryPlanner}, up to the rewritten query that is searched.
+ *
+ * <p>Searches used to find the default fields by walking {@link Field} and the search extensions,
+ * create a new parser, escape and parse the query, parse the first word once more to look for a
+ * job of that name, and rewrite both the query and its highlight query. The planner is measured
+ * cold, with the default fields changing on every call so that neither a parser nor a parsed query
+ * is reused, and warm, with the query parsed before; either way the query is rewritten once, after
+ * a lookup of the first word among the job names. Without Jenkins the extensions are a fixed list,
+ * so the walk costs less here than it did.
+ *
+ * <p>Run it with {@code mvn test-compile exec:java
+ * -Dexec.mainClass=org.jenkinsci.plugins.lucene.search.databackend.QueryPlannerBenchmark
+ * -Dexec.classpathScope=test}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class QueryPlannerBenchmark {
+  private static final Locale LOCALE = Locale.ENGLISH;
+  // The keywords of the search extensions, and whether they are searched by default
+  private static final String[] EXTENSION_KEYWORDS = {"unittest"};
+  private static final boolean[] EXTENSION_DEFAULT_SEARCHABLE = {true};
+  private static final String[] NAMES = {"nightly", "nightly-release", "folder/job", "echo"};
+
+  @Param({"echo", "folder/job c:\"build failed\" AND d:nightly*"})
+  private String query;
+
+  private Analyzer analyzer;
+  private Directory directory;
+  private IndexReader reader;
+  private IndexSearcher searcher;
+  private Set<String> jobNames;
+  private QueryPlanner coldPlanner;
+  private QueryPlanner warmPlanner;
+
+  @Setup
+  public void setUp() throws IOException, ParseException {
+    analyzer = new CaseSensitiveAnalyzer();
+    directory = new ByteBuffersDirectory();
+    try (IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(analyzer))) {
+      // Enough terms for the wildcard to expand to several
+      for (int i = 0; i < 100; i++) {
+        Document doc = new Document();
+        doc.add(new TextField("j", "job" + i, TextField.Store.NO));
+        doc.add(new TextField("d", NAMES[i % NAMES.length] + i, TextField.Store.NO));
+        doc.add(new TextField("c", "echo build failed " + i, TextField.Store.NO));
+        doc.add(new TextField("p", "param" + i, TextField.Store.NO));
+        writer.addDocument(doc);
+      }
+    }
+    reader = DirectoryReader.open(directory);
+    searcher = new IndexSearcher(reader);
+    jobNames = Set.of("job1", "job2");
+
+    String[] fields = findDefaultSearchableFields();
+    coldPlanner = new QueryPlanner(analyzer, () -> fields.clone());
+    warmPlanner = new QueryPlanner(analyzer, () -> fields);
+    warmPlanner.parse(query);
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    reader.close();
+    directory.close();
+    analyzer.close();
+  }
+
+  /** Walks the fields and the search extensions, as every search used to. */
+  private static String[] findDefaultSearchableFields() {
+    List<String> fieldNames = new LinkedList<String>();
+    for (Field field : Field.values()) {
+      if (field.defaultSearchable) {
+        fieldNames.add(field.fieldName);
+      }
+    }
+    for (int i = 0; i < EXTENSION_KEYWORDS.length; i++) {
+      if (EXTENSION_DEFAULT_SEARCHABLE[i]) {
+        fieldNames.add(EXTENSION_KEYWORDS[i]);
+      }
+    }
+    return fieldNames.toArray(new String[fieldNames.size()]);
+  }
+
+  private static List<String> words(String q) {
+    List<String> words = new ArrayList<>(Arrays.asList(q.trim().split("\\s+", 2)));
+    words.removeAll(Arrays.asList("", null));
+    return words;
+  }
+
+  @Benchmark
+  public Query[] newParserPerQuery() throws ParseException, IOException {
+    MultiFieldQueryParser parser =
+        new MultiFieldQueryParser(findDefaultSearchableFields(), analyzer);
+    parser.setDefaultOperator(QueryParser.Operator.AND);
+    parser.setLocale(LOCALE);
+    parser.setAllowLeadingWildcard(true);
+    parser.setMultiTermRewriteMethod(MultiTermQuery.SCORING_BOOLEAN_REWRITE);
+    Query parsed = parser.parse(LuceneSearchBackend.escapeQuery(query));
+    List<String> words = words(query);
+    if (words.size() >= 2) {
+      String jobName = QueryParser.escape(words.get(0));
+      searcher.search(parser.parse(Field.PROJECT_NAME.fieldName + ":" + jobName), 1);
+    }
+    // Unless the search was restricted to a job, the highlight query was the query itself
+    return new Query[] {parsed.rewrite(reader), parsed.rewrite(reader)};
+  }
+
+  @Benchmark
+  public Query coldQueryPlanner() throws ParseException, IOException {
+    return plan(coldPlanner);
+  }
+
+  @Benchmark
+  public Query warmQueryPlanner() throws ParseException, IOException {
+    return plan(warmPlanner);
+  }
+
+  private Query plan(QueryPlanner planner) throws ParseException, IOException {
+    List<String> words = words(query);
+    boolean jobName = words.size() >= 2 && jobNames.contains(words.get(0));
+    return planner.parse(jobName ? words.get(1) : query).rewrite(reader);
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    new Runner(
+            new OptionsBuilder()
+                .include(QueryPlannerBenchmark.class.getSimpleName())
+                .forks(1)
+                .warmupIterations(3)
+                .measurementIterations(5)
+                .build())
+        .run();
+  }
+}
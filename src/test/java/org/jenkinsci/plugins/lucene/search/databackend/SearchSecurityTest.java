@@ -0,0 +1,84 @@
+package org.jenkinsci.plugins.lucene.search.databackend;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import hudson.model.FreeStyleProject;
+import hudson.model.Item;
+import hudson.model.User;
+import hudson.search.SearchResult;
+import hudson.search.SuggestedItem;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
+import hudson.tasks.Shell;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import jenkins.model.Jenkins;
+import org.jenkinsci.plugins.lucene.search.FreeTextSearchItemImplementation;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.MockAuthorizationStrategy;
+
+public class SearchSecurityTest {
+  @Rule public JenkinsRule rule = new JenkinsRule();
+  private ExecutorService backgroundWorker;
+  private JenkinsSearchBackend jenkinsSearchBackend;
+
+  @Before
+  public void setup() {
+    backgroundWorker = Executors.newFixedThreadPool(1);
+    jenkinsSearchBackend = new JenkinsSearchBackend(rule, backgroundWorker);
+  }
+
+  @After
+  public void tearDown() {
+    backgroundWorker.shutdownNow();
+  }
+
+  @Test(timeout = 30000)
+  public void givenSecurityWhenUserSearchesThenJobsTheyMayNotReadAreNeverFound() throws Exception {
+    jenkinsSearchBackend.setLuceneBackend(true);
+    FreeStyleProject visible = rule.createFreeStyleProject("visible");
+    visible.getBuildersList().add(new Shell("echo needle42\n"));
+    FreeStyleProject hidden = rule.createFreeStyleProject("hidden");
+    hidden.getBuildersList().add(new Shell("echo needle42\n"));
+    rule.buildAndAssertSuccess(visible);
+    rule.buildAndAssertSuccess(hidden);
+    rule.jenkins.setSecurityRealm(rule.createDummySecurityRealm());
+    rule.jenkins.setAuthorizationStrategy(
+        new MockAuthorizationStrategy()
+            .grant(Jenkins.ADMINISTER)
+            .everywhere()
+            .to("admin")
+            .grant(Jenkins.READ)
+            .everywhere()
+            .to("alice")
+            .grant(Item.READ)
+            .onItems(visible)
+            .to("alice"));
+    SearchBackendManager manager =
+        rule.jenkins.getInjector().getInstance(SearchBackendManager.class);
+    manager.waitForQueuedBuilds(5000);
+
+    try (ACLContext ignored = ACL.as2(User.getById("alice", true).impersonate2())) {
+      List<FreeTextSearchItemImplementation> hits =
+          manager.getHits("needle42", null, false).getHits();
+      assertEquals(1, hits.size());
+      assertEquals("visible", hits.get(0).getProjectName());
+      // Newest first is searched the other way, and filtered all the same
+      assertEquals(1, manager.getHits("needle42", null, true).getHits().size());
+      SearchResult suggestions = manager.getSuggestedItems("needle42");
+      assertEquals(1, suggestions.size());
+      for (SuggestedItem suggestion : suggestions) {
+        assertFalse(suggestion.item.getSearchName().startsWith("hidden"));
+      }
+    }
+    try (ACLContext ignored = ACL.as2(User.getById("admin", true).impersonate2())) {
+      assertEquals(2, manager.getHits("needle42", null, false).getHits().size());
+    }
+  }
+}